@@ -0,0 +1,170 @@
+package client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import company.Car;
+import company.CarRentalCompany;
+import company.CarType;
+import company.Reservation;
+import company.ReservationConstraints;
+import rental.Quote;
+
+/**
+ * Compares the size and the (de)serialization time of the objects that are sent over RMI
+ * with their compact wire format against the default Java serialization of the same fields.
+ */
+public class SerializationBenchmark {
+
+	private static final int NB_OBJECTS = 100;
+	private static final int NB_ROUNDS = 2000;
+	private static final int NB_TYPES = 10;
+
+	/********
+	 * MAIN *
+	 ********/
+
+	public static void main(String[] args) throws Exception {
+		// Reservations can only be made by a company, so book them at a local one with a car per quote.
+		Logger.getLogger(CarRentalCompany.class.getName()).setLevel(Level.WARNING);
+		List<Car> cars = new ArrayList<>();
+		for (int i = 0; i < NB_OBJECTS; i++)
+			cars.add(new Car(i, new CarType("Type " + (i % NB_TYPES), 4, 300f, 40.5, false)));
+		CarRentalCompany company = new CarRentalCompany("Hertz", Arrays.asList("Brussels"), cars);
+
+		List<Object> compact = new ArrayList<>();
+		List<Object> legacy = new ArrayList<>();
+		for (int i = 0; i < NB_OBJECTS; i++) {
+			Date start = new GregorianCalendar(2026, 10, 1 + i % 28).getTime();
+			Date end = new GregorianCalendar(2026, 11, 1 + i % 28).getTime();
+			String renter = "Renter " + i;
+			String type = "Type " + (i % NB_TYPES);
+
+			Quote quote = new Quote(renter, start, end, "Hertz", type, 40.5 * (i % 7));
+			Reservation reservation = company.confirmQuote(quote);
+			compact.add(quote);
+			compact.add(reservation);
+			compact.add(new CarType(type, 4, 300f, 40.5, false));
+			compact.add(new ReservationConstraints(start, end, type, "Brussels"));
+			legacy.add(new LegacyQuote(renter, start, end, "Hertz", type, 40.5 * (i % 7)));
+			legacy.add(new LegacyReservation(renter, start, end, "Hertz", type, 40.5 * (i % 7), reservation.getCarId()));
+			legacy.add(new LegacyCarType(type, 4, 300f, 40.5, false));
+			legacy.add(new LegacyConstraints(start, end, type, "Brussels"));
+		}
+
+		// Warm up both paths before measuring.
+		measure(compact, NB_ROUNDS / 4);
+		measure(legacy, NB_ROUNDS / 4);
+
+		report("compact", compact);
+		report("default", legacy);
+		for (int i = 0; i < 4; i++) {
+			System.out.printf("single %-22s compact %4d bytes, default %4d bytes%n", compact.get(i).getClass().getSimpleName(),
+					serialize(compact.get(i)).length, serialize(legacy.get(i)).length);
+		}
+	}
+
+	private static void report(String name, List<Object> objects) throws Exception {
+		int size = serialize(objects).length;
+		long nanos = measure(objects, NB_ROUNDS);
+		System.out.printf("%-8s %6d bytes per message, %6.1f bytes per object, %8.0f ns per round trip%n",
+				name, size, (double) size / objects.size(), (double) nanos / NB_ROUNDS);
+	}
+
+	private static long measure(List<Object> objects, int nbRounds) throws Exception {
+		long start = System.nanoTime();
+		for (int i = 0; i < nbRounds; i++) {
+			try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialize(objects)))) {
+				if (((List<?>) in.readObject()).size() != objects.size())
+					throw new IllegalStateException("Objects were lost in the round trip");
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static byte[] serialize(Object object) throws IOException {
+		// Every RMI call writes its arguments to a new stream, so do the same here.
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(object);
+		}
+		return bytes.toByteArray();
+	}
+
+	/*******************************
+	 * DEFAULT SERIALIZED VERSIONS *
+	 *******************************/
+
+	private static class LegacyQuote implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final String carRenter;
+		final Date startDate;
+		final Date endDate;
+		final String rentalCompany;
+		final String carType;
+		final double rentalPrice;
+
+		LegacyQuote(String carRenter, Date start, Date end, String rentalCompany, String carType, double rentalPrice) {
+			this.carRenter = carRenter;
+			this.startDate = start;
+			this.endDate = end;
+			this.rentalCompany = rentalCompany;
+			this.carType = carType;
+			this.rentalPrice = rentalPrice;
+		}
+	}
+
+	private static class LegacyReservation extends LegacyQuote {
+		private static final long serialVersionUID = 1L;
+		final int carId;
+
+		LegacyReservation(String carRenter, Date start, Date end, String rentalCompany, String carType,
+				double rentalPrice, int carId) {
+			super(carRenter, start, end, rentalCompany, carType, rentalPrice);
+			this.carId = carId;
+		}
+	}
+
+	private static class LegacyCarType implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final String name;
+		final int nbOfSeats;
+		final float trunkSpace;
+		final double rentalPricePerDay;
+		final boolean smokingAllowed;
+
+		LegacyCarType(String name, int nbOfSeats, float trunkSpace, double rentalPricePerDay, boolean smokingAllowed) {
+			this.name = name;
+			this.nbOfSeats = nbOfSeats;
+			this.trunkSpace = trunkSpace;
+			this.rentalPricePerDay = rentalPricePerDay;
+			this.smokingAllowed = smokingAllowed;
+		}
+	}
+
+	private static class LegacyConstraints implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final Date startDate;
+		final Date endDate;
+		final String carType;
+		final String region;
+
+		LegacyConstraints(Date start, Date end, String carType, String region) {
+			this.startDate = start;
+			this.endDate = end;
+			this.carType = carType;
+			this.region = region;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import company.RmiSocketFactory;
+
+/**
+ * Compares the time of remote calls with answers of several sizes (like the maps of
+ * getNumResByRenter) over the default RMI sockets and over sockets of RmiSocketFactory with
+ * several settings.
+ *
+ * All calls go over the loopback interface, where bandwidth is no limit: compression only
+ * costs time here, and pays off on slower networks by the ratio that is printed.
+ */
+public class SocketFactoryBenchmark {
+
+	private static final int[] PAYLOAD_SIZES = { 10, 1000, 100000 };
+	private static final int[] NB_ROUNDS = { 2000, 500, 20 };
+
+	/**
+	 * A remote object that answers with the payload of the given size.
+	 */
+	public interface Payloads extends Remote {
+		Map<String, Integer> get(int size) throws RemoteException;
+	}
+
+	private static class PayloadServer implements Payloads {
+		private final Map<Integer, Map<String, Integer>> payloads = new HashMap<>();
+
+		PayloadServer() {
+			for (int size : PAYLOAD_SIZES)
+				payloads.put(size, newPayload(size));
+		}
+
+		@Override
+		public Map<String, Integer> get(int size) {
+			return payloads.get(size);
+		}
+	}
+
+	/********
+	 * MAIN *
+	 ********/
+
+	public static void main(String[] args) throws Exception {
+		Map<String, RmiSocketFactory> factories = new LinkedHashMap<>();
+		factories.put("default", null);
+		factories.put("nodelay", new RmiSocketFactory(0, 0, true, -1));
+		factories.put("nodelay+buffer", new RmiSocketFactory(0, RmiSocketFactory.DEFAULT_BUFFER_SIZE, true, -1));
+		factories.put("nodelay+buffer+compress", new RmiSocketFactory(256 * 1024, RmiSocketFactory.DEFAULT_BUFFER_SIZE,
+				true, 1024));
+
+		for (int size : PAYLOAD_SIZES) {
+			byte[] serialized = serialize(newPayload(size));
+			System.out.printf("payload of %6d renters: %8d bytes, %8d bytes compressed%n", size, serialized.length,
+					compress(serialized));
+		}
+		for (Map.Entry<String, RmiSocketFactory> factory : factories.entrySet()) {
+			PayloadServer server = new PayloadServer();
+			RmiSocketFactory sockets = factory.getValue();
+			Payloads stub = (Payloads) (sockets == null ? UnicastRemoteObject.exportObject(server, 0)
+					: UnicastRemoteObject.exportObject(server, 0, sockets, sockets));
+			for (int i = 0; i < PAYLOAD_SIZES.length; i++) {
+				// Warm up the connection and the code paths before measuring.
+				measure(stub, PAYLOAD_SIZES[i], NB_ROUNDS[i] / 4);
+				long nanos = measure(stub, PAYLOAD_SIZES[i], NB_ROUNDS[i]);
+				System.out.printf("%-24s %6d renters: %10.1f us per call%n", factory.getKey(), PAYLOAD_SIZES[i],
+						nanos / 1000.0 / NB_ROUNDS[i]);
+			}
+			UnicastRemoteObject.unexportObject(server, true);
+		}
+	}
+
+	private static long measure(Payloads stub, int size, int nbRounds) throws RemoteException {
+		long start = System.nanoTime();
+		for (int i = 0; i < nbRounds; i++) {
+			if (stub.get(size).size() != size)
+				throw new IllegalStateException("Entries were lost in the call");
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static Map<String, Integer> newPayload(int size) {
+		Map<String, Integer> payload = new HashMap<>();
+		for (int i = 0; i < size; i++)
+			payload.put("Renter " + i, 1 + i % 17);
+		return payload;
+	}
+
+	private static byte[] serialize(Object object) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(object);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static int compress(byte[] bytes) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+		deflater.setInput(bytes);
+		deflater.finish();
+		byte[] out = new byte[bytes.length + 64];
+		int size = 0;
+		while (!deflater.finished())
+			size += deflater.deflate(out, size, out.length - size);
+		deflater.end();
+		return size;
+	}
+}
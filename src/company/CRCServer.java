@@ -1,85 +1,109 @@
 package company;
 
-import java.io.BufferedReader;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class CRCServer {
 	
+	private static Logger logger = Logger.getLogger(CRCServer.class.getName());
+
+	// System property with a directory: when set, reservations are kept in memory-mapped files in there.
+	public static final String OFF_HEAP_DIRECTORY_PROPERTY = "crc.offheap.dir";
+	// System property with a directory: when set, reservations are logged there and restored on startup.
+	public static final String DATA_DIRECTORY_PROPERTY = "crc.data.dir";
+	// System property with the number of seconds between snapshots of the reservations (if they are logged).
+	public static final String SNAPSHOT_INTERVAL_PROPERTY = "crc.snapshot.interval";
+	public static final long DEFAULT_SNAPSHOT_INTERVAL_SECONDS = 300;
+	// System property with the number of milliseconds a car is held for every quote. The default of 0
+	// holds no cars, so a quote is only checked again when it is confirmed.
+	public static final String QUOTE_HOLD_PROPERTY = "crc.quotehold.millis";
+	public static final long DEFAULT_QUOTE_HOLD_MILLIS = 0;
+	
 	/**
 	 * Create new car rental company server that will communicate with the rental agency.
 	 */
 	public CRCServer(String carRentalCompanyName, String file) throws NumberFormatException,
 			ReservationException, IOException {
 		CrcData data  = loadData(file);
-		CarRentalCompany crc = new CarRentalCompany(data.name, data.regions, data.cars);
+		String offHeapDirectory = System.getProperty(OFF_HEAP_DIRECTORY_PROPERTY);
+		MappedNodeStore store = offHeapDirectory == null ? null
+				: MappedNodeStore.open(Paths.get(offHeapDirectory, carRentalCompanyName + ".nodes"));
+		CarRentalCompany crc = new CarRentalCompany(data.name, data.regions, data.cars, store);
+		crc.setQuoteHoldMillis(Long.getLong(QUOTE_HOLD_PROPERTY, DEFAULT_QUOTE_HOLD_MILLIS));
+		String dataDirectory = System.getProperty(DATA_DIRECTORY_PROPERTY);
+		if (dataDirectory != null)
+			crc.recover(Paths.get(dataDirectory), carRentalCompanyName,
+					1000 * Long.getLong(SNAPSHOT_INTERVAL_PROPERTY, DEFAULT_SNAPSHOT_INTERVAL_SECONDS));
 		
-		ICarRentalCompany rentalStub = (ICarRentalCompany) UnicastRemoteObject.exportObject(crc, 0);
+		RmiSocketFactory sockets = RmiSocketFactory.fromSystemProperties();
+		ICarRentalCompany rentalStub = (ICarRentalCompany) UnicastRemoteObject.exportObject(crc, 0, sockets, sockets);
 		Registry registry = LocateRegistry.getRegistry(14540);
 		registry.rebind(carRentalCompanyName, rentalStub);
 	}
 
+	/**
+	 * Load the fleet file with the given name from the class path or, if it is not there, from
+	 * the file system.
+	 */
 	public static CrcData loadData(String datafile)
 			throws ReservationException, NumberFormatException, IOException {
-
-		CrcData out = new CrcData();
-		int nextuid = 0;
-
-		// open file
 		InputStream stream = MethodHandles.lookup().lookupClass().getClassLoader().getResourceAsStream(datafile);
-		if (stream == null) {
-			System.err.println("Could not find data file " + datafile);
-		}
-		BufferedReader in = new BufferedReader(new InputStreamReader(stream));
-		StringTokenizer csvReader;
-		
+		if (stream == null)
+			return loadData(Paths.get(datafile));
+
+		long startTime = System.nanoTime();
+		ByteBuffer bytes;
 		try {
-			// while next line exists
-			while (in.ready()) {
-				String line = in.readLine();
-				
-				if (line.startsWith("#")) {
-					// comment -> skip					
-				} else if (line.startsWith("-")) {
-					csvReader = new StringTokenizer(line.substring(1), ",");
-					out.name = csvReader.nextToken();
-					out.regions = Arrays.asList(csvReader.nextToken().split(":"));
-				} else {
-					// tokenize on ,
-					csvReader = new StringTokenizer(line, ",");
-					// create new car type from first 5 fields
-					CarType type = new CarType(csvReader.nextToken(),
-							Integer.parseInt(csvReader.nextToken()),
-							Float.parseFloat(csvReader.nextToken()),
-							Double.parseDouble(csvReader.nextToken()),
-							Boolean.parseBoolean(csvReader.nextToken()));
-					System.out.println(type);
-					// create N new cars with given type, where N is the 5th field
-					for (int i = Integer.parseInt(csvReader.nextToken()); i > 0; i--) {
-						out.cars.add(new Car(nextuid++, type));
-					}
-				}
-			}
+			bytes = ByteBuffer.wrap(stream.readAllBytes());
 		} finally {
-			in.close();
+			stream.close();
 		}
+		return parseData(datafile, bytes, startTime);
+	}
+
+	/**
+	 * Load the fleet file at the given path, which is memory-mapped instead of read.
+	 */
+	public static CrcData loadData(Path datafile) throws IOException {
+		if (!Files.isRegularFile(datafile))
+			throw new FileNotFoundException("Could not find data file " + datafile);
+		long startTime = System.nanoTime();
+		try (FileChannel channel = FileChannel.open(datafile, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Data file " + datafile + " is too large");
+			return parseData(datafile.toString(), channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), startTime);
+		}
+	}
 
-		return out;
+	private static CrcData parseData(String datafile, ByteBuffer bytes, long startTime) throws IOException {
+		int size = bytes.remaining();
+		CrcData data = FleetFile.parse(datafile, bytes);
+		long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+		logger.log(Level.INFO, "Loaded {0} cars ({1} bytes) from {2} in {3} ms, {4} cars/s",
+				new Object[] { data.cars.size(), size, datafile, millis, 1000L * data.cars.size() / millis });
+		return data;
 	}
 	
 	static class CrcData {
-		public List<Car> cars = new LinkedList<Car>();
+		public List<Car> cars = new ArrayList<Car>();
 		public String name;
-		public List<String> regions =  new LinkedList<String>();
+		public List<String> regions =  new ArrayList<String>();
 	}
 
 }
@@ -0,0 +1,173 @@
+package company;
+
+import java.util.Date;
+
+/**
+ * Range-max segment tree that counts, per day, how many cars of one car type are booked.
+ * The number of free cars on a day is the fleet size minus that count, so the lowest
+ * number of free cars in a period is a single O(log days) query.
+ *
+ * Note that free cars on every day of a period do not imply that one car is free for
+ * the whole period, so the tree can only rule out availability: if all cars are booked
+ * on some day of the period, none of them can take the reservation.
+ *
+ * Like {@link ReservationIndex}, the tree is immutable and updates return a new tree
+ * that shares all untouched nodes with the old one.
+ */
+class CapacityTree {
+
+	public static final CapacityTree EMPTY = new CapacityTree(null, 0);
+
+	// Supported days, roughly the years 1611 to 2328.
+	private static final int FIRST_DAY = -(1 << 17);
+	private static final int LAST_DAY = (1 << 17) - 1;
+
+	private final Node root;
+	// Number of booked reservations that do not start and end at the start of a day.
+	private final int inexact;
+
+	private CapacityTree(Node root, int inexact) {
+		this.root = root;
+		this.inexact = inexact;
+	}
+
+	/***********
+	 * QUERIES *
+	 ***********/
+
+	/**
+	 * Check whether all of the given number of cars are booked on some day of the given period.
+	 *
+	 * Only answers true when this follows exactly from the day counts, which is the case when
+	 * the period and all booked reservations are made up of whole days.
+	 */
+	public boolean isFullyBooked(Date start, Date end, int nbCars) {
+		if (inexact > 0 || !isExact(start) || !isExact(end))
+			return false;
+		return max(root, FIRST_DAY, LAST_DAY, Days.toEpochDay(start), Days.toEpochDay(end)) >= nbCars;
+	}
+
+	/***********
+	 * UPDATES *
+	 ***********/
+
+	public CapacityTree book(Reservation reservation) {
+		return book(reservation.getStartDate(), reservation.getEndDate());
+	}
+
+	public CapacityTree book(Date start, Date end) {
+		return update(start, end, 1);
+	}
+
+	public CapacityTree release(Reservation reservation) {
+		return update(reservation.getStartDate(), reservation.getEndDate(), -1);
+	}
+
+	private CapacityTree update(Date start, Date end, int delta) {
+		if (!isExact(start) || !isExact(end))
+			return new CapacityTree(root, inexact + delta);
+		return new CapacityTree(add(root, FIRST_DAY, LAST_DAY, Days.toEpochDay(start), Days.toEpochDay(end), delta), inexact);
+	}
+
+	/**
+	 * Collects reservations to build a tree with all of them at once, in O(days + reservations).
+	 */
+	static class Builder {
+		// The change in count from the day before, per day (and one more for the day after the last one).
+		// Only allocated for the first reservation, since most fleets start out without any.
+		private int[] changes;
+		private int inexact;
+
+		public void book(Date start, Date end) {
+			if (!isExact(start) || !isExact(end)) {
+				inexact++;
+				return;
+			}
+			if (changes == null)
+				changes = new int[LAST_DAY - FIRST_DAY + 2];
+			changes[Days.toEpochDay(start) - FIRST_DAY]++;
+			changes[Days.toEpochDay(end) - FIRST_DAY + 1]--;
+		}
+
+		public CapacityTree build() {
+			if (changes == null)
+				return new CapacityTree(null, inexact);
+			for (int day = 1; day < changes.length; day++)
+				changes[day] += changes[day - 1];
+			return new CapacityTree(build(changes, FIRST_DAY, LAST_DAY), inexact);
+		}
+
+		private static Node build(int[] counts, int low, int high) {
+			if (low == high) {
+				int count = counts[low - FIRST_DAY];
+				return count == 0 ? null : new Node(count, count, null, null);
+			}
+			int middle = (low + high) >> 1;
+			Node left = build(counts, low, middle);
+			Node right = build(counts, middle + 1, high);
+			if (left == null && right == null)
+				return null;
+			return new Node(0, Math.max(max(left), max(right)), left, right);
+		}
+	}
+
+	private static boolean isExact(Date date) {
+		int day = Days.toEpochDay(date);
+		return FIRST_DAY <= day && day <= LAST_DAY && Days.isStartOfDay(date);
+	}
+
+	/*********
+	 * NODES *
+	 *********/
+
+	/**
+	 * Add delta to every day in [from, until] of the given subtree, which covers the days [low, high].
+	 */
+	private static Node add(Node node, int low, int high, int from, int until, int delta) {
+		if (until < low || high < from)
+			return node;
+		if (from <= low && high <= until) {
+			if (node == null)
+				return new Node(delta, delta, null, null);
+			return new Node(node.add + delta, node.max + delta, node.left, node.right);
+		}
+		int middle = (low + high) >> 1;
+		Node left = add(node == null ? null : node.left, low, middle, from, until, delta);
+		Node right = add(node == null ? null : node.right, middle + 1, high, from, until, delta);
+		int add = node == null ? 0 : node.add;
+		return new Node(add, add + Math.max(max(left), max(right)), left, right);
+	}
+
+	/**
+	 * Get the highest count on a day in [from, until] of the given subtree, which covers the days [low, high].
+	 */
+	private static int max(Node node, int low, int high, int from, int until) {
+		if (node == null || until < low || high < from)
+			return 0;
+		if (from <= low && high <= until)
+			return node.max;
+		int middle = (low + high) >> 1;
+		return node.add + Math.max(max(node.left, low, middle, from, until),
+				max(node.right, middle + 1, high, from, until));
+	}
+
+	private static int max(Node node) {
+		return node == null ? 0 : node.max;
+	}
+
+	private static class Node {
+		// Count added to every day of this node's range, on top of the counts of its children.
+		final int add;
+		// Highest count on any day of this node's range.
+		final int max;
+		final Node left;
+		final Node right;
+
+		Node(int add, int max, Node left, Node right) {
+			this.add = add;
+			this.max = max;
+			this.left = left;
+			this.right = right;
+		}
+	}
+}
@@ -4,14 +4,20 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 public class Car {
 	
 	private int id;
     private CarType type;
-    private List<Reservation> reservations;
+    // The company that owns this car, and its symbols for the renters of its reservations.
+    // Both are set when the car becomes part of the company.
+    private String company;
+    private Symbols renters;
+    private ReservationIndex reservations;
+    // Tentative reservations that block the car, but are not (yet) confirmed.
+    private ReservationIndex holds;
 
     /***************
      * CONSTRUCTOR *
@@ -20,7 +26,8 @@ public class Car {
     public Car(int uid, CarType type) {
     	this.id = uid;
         this.type = type;
-        this.reservations = new ArrayList<Reservation>();
+        this.reservations = HeapReservationIndex.EMPTY;
+        this.holds = HeapReservationIndex.EMPTY;
     }
 
     /******
@@ -39,6 +46,24 @@ public class Car {
         return type;
     }
 
+    /***********
+     * COMPANY *
+     ***********/
+
+    /**
+     * Make this car part of the given company. Must be done before adding any reservations.
+     *
+     * @param store the store to keep the reservations of this car in, or null to keep them on the heap
+     */
+    void setCompany(String company, Symbols renters, MappedNodeStore store) {
+        this.company = company;
+        this.renters = renters;
+        if (store != null) {
+            this.reservations = store.emptyIndex();
+            this.holds = store.emptyIndex();
+        }
+    }
+
     /****************
      * RESERVATIONS *
      ****************/
@@ -47,33 +72,110 @@ public class Car {
         if(!start.before(end))
             throw new IllegalArgumentException("Illegal given period");
 
-        for(Reservation reservation : reservations) {
-            if(reservation.getEndDate().before(start) || reservation.getStartDate().after(end))
-                continue;
-            return false;
-        }
-        return true;
+        return !reservations.overlaps(start, end) && !holds.overlaps(start, end);
     }
     
     public void addReservation(Reservation res) {
-        reservations.add(res);
+        reservations = insert(reservations, res);
     }
     
-    public void removeReservation(Reservation reservation) {
-        // equals-method for Reservation is required!
-        reservations.
-        remove(reservation);
+    /**
+     * Remove the given reservation from this car.
+     *
+     * @return whether this car had the reservation
+     */
+    public boolean removeReservation(Reservation reservation) {
+        ReservationIndex remaining = remove(reservations, reservation);
+        boolean removed = remaining != reservations;
+        reservations = remaining;
+        return removed;
     }
 
     public List<Reservation> getReservationForRenter(String clientName) {
-        return reservations.stream().filter(x -> x.getCarRenter().equals(clientName)).collect(Collectors.toList());
+        int renter = renters.find(clientName);
+        return renter < 0 ? new ArrayList<>() : toReservations(reservations, renter);
     }
 
     public int getNumberReservations() {
         return reservations.size();
     }
     
+    /**
+     * Get the current (immutable) version of the reservation index of this car.
+     */
+    ReservationIndex getReservationIndex() {
+        return reservations;
+    }
+
+    /**
+     * Give this car, which has no reservations yet, the given reservations sorted on their start date.
+     */
+    void restoreReservations(long[] starts, long[] ends, int[] renters, double[] prices, int count) {
+        reservations = reservations.build(starts, ends, renters, prices, count);
+    }
+
     public Set<Reservation> getAllReservations() {
-    	return new HashSet<>(reservations);
+    	return new HashSet<>(toReservations(reservations, -1));
+    }
+
+    /*********
+     * HOLDS *
+     *********/
+
+    public void addHold(Reservation hold) {
+        holds = insert(holds, hold);
+    }
+
+    /**
+     * Remove the given hold from this car.
+     *
+     * @return whether this car had the hold
+     */
+    public boolean removeHold(Reservation hold) {
+        ReservationIndex remaining = remove(holds, hold);
+        boolean removed = remaining != holds;
+        holds = remaining;
+        return removed;
+    }
+
+    /**
+     * Get the current (immutable) version of the hold index of this car.
+     */
+    ReservationIndex getHoldIndex() {
+        return holds;
+    }
+
+    /***********
+     * INDEXES *
+     ***********/
+
+    private ReservationIndex insert(ReservationIndex index, Reservation res) {
+        return index.insert(res.getStartDate().getTime(), res.getEndDate().getTime(),
+                renters.intern(res.getCarRenter()), res.getRentalPrice());
+    }
+
+    /**
+     * Remove the given reservation from the given index, which is unchanged if it does not
+     * have the reservation. Only the reservations of this car can be in its indexes.
+     */
+    private ReservationIndex remove(ReservationIndex index, Reservation res) {
+        int renter = renters.find(res.getCarRenter());
+        if (renter < 0 || res.getCarId() != id || !type.getName().equals(res.getCarType())
+                || !Objects.equals(company, res.getRentalCompany()))
+            return index;
+        return index.remove(res.getStartDate().getTime(), res.getEndDate().getTime(), renter, res.getRentalPrice());
+    }
+
+    /**
+     * Create the reservations in the given index of this car, of the given renter or of all renters if it is negative.
+     */
+    List<Reservation> toReservations(ReservationIndex index, int renter) {
+        List<Reservation> out = new ArrayList<>();
+        index.forEach((start, end, reservationRenter, price) -> {
+            if (renter < 0 || renter == reservationRenter)
+                out.add(new Reservation(renters.get(reservationRenter), new Date(start), new Date(end), company,
+                        type.getName(), price, id));
+        });
+        return out;
     }
-}
\ No newline at end of file
+}
@@ -1,8 +1,12 @@
 package company;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -10,6 +14,14 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,22 +31,78 @@ public class CarRentalCompany implements ICarRentalCompany {
 
 	private static Logger logger = Logger.getLogger(CarRentalCompany.class.getName());
 
+	// How long cars stay held for a prepared transaction that is neither committed nor aborted.
+	public static final long PREPARED_TIMEOUT_MILLIS = 30000;
+	// Precision and size of the timer wheel that expires holds.
+	private static final long TIMER_TICK_MILLIS = 100;
+	private static final int TIMER_BUCKETS = 512;
+
 	private List<String> regions;
 	private String name;
-	private List<Car> cars;
 	private Map<String, CarType> carTypes = new HashMap<String, CarType>();
+	// The same car types, numbered for sending sets of them as bitsets.
+	private CarTypeCatalogue catalogue;
+	// The fleet, partitioned per car type name and indexed on car uid.
+	private Map<String, List<Car>> carsByType = new HashMap<String, List<Car>>();
+	private Map<Integer, Car> carsById;
+	// Symbols of the renters of all reservations, which the cars store as ints.
+	private Symbols renters = new Symbols();
+	// One lock per car type: the cars (and reservations) of a type are only changed while holding its lock.
+	private Map<String, Lock> locks = new HashMap<String, Lock>();
+	// Latest published snapshot per car type, read without locking.
+	private Map<String, FleetSnapshot> snapshots = new ConcurrentHashMap<String, FleetSnapshot>();
+	// Counts of the confirmed reservations per type and per renter, for managers.
+	private ReservationStatistics statistics = new ReservationStatistics(renters);
+	// The confirmed reservations per renter.
+	private RenterIndex reservationsByRenter;
+	// Version of the reservation state of the whole company, bumped after every published snapshot.
+	private AtomicLong version = new AtomicLong();
+	// Prepared transactions by transaction id, released when they expire. Committed ones are kept
+	// as long again, so a coordinator that missed the answer can still commit or abort them.
+	private Map<String, PreparedTransaction> prepared = new ConcurrentHashMap<String, PreparedTransaction>();
+	// Cars held for quotes, when holding cars at quote time is enabled.
+	private Map<Quote, HeldQuote> heldQuotes = new ConcurrentHashMap<Quote, HeldQuote>();
+	private volatile long quoteHoldMillis = 0;
+	private TimerWheel timers;
+	// Log of confirmed and cancelled reservations, or null if they are not made durable.
+	private ReservationLog log;
+	// Where the latest snapshot of the reservations is written, if they are made durable.
+	private Path snapshotFile;
 
 	/***************
 	 * CONSTRUCTOR *
 	 ***************/
 
 	public CarRentalCompany(String name, List<String> regions, List<Car> cars) {
+		this(name, regions, cars, null);
+	}
+
+	/**
+	 * Create a company that keeps the reservations of its cars in the given off-heap store,
+	 * or on the heap if it is null.
+	 */
+	CarRentalCompany(String name, List<String> regions, List<Car> cars, MappedNodeStore store) {
 		logger.log(Level.INFO, "<{0}> Car Rental Company {0} starting up...", name);
 		setName(name);
-		this.cars = cars;
 		setRegions(regions);
-		for (Car car : cars)
-			carTypes.put(car.getType().getName(), car.getType());
+		reservationsByRenter = new RenterIndex(name, renters, store, carId -> getCar(carId).getType().getName());
+		carsById = new HashMap<Integer, Car>(2 * cars.size());
+		for (Car car : cars) {
+			carsByType.computeIfAbsent(car.getType().getName(), type -> {
+				carTypes.put(type, car.getType());
+				locks.put(type, new ReentrantLock());
+				return new ArrayList<Car>();
+			}).add(car);
+			carsById.put(car.getId(), car);
+		}
+		catalogue = new CarTypeCatalogue(carTypes.values());
+		// The fleets of the types are independent, so they are set up in parallel.
+		carsByType.entrySet().parallelStream().forEach(fleet -> {
+			for (Car car : fleet.getValue())
+				car.setCompany(name, renters, store);
+			snapshots.put(fleet.getKey(), FleetSnapshot.of(fleet.getValue()));
+		});
+		timers = new TimerWheel(name + " timers", TIMER_TICK_MILLIS, TIMER_BUCKETS);
 		logger.log(Level.INFO, this.toString());
 	}
 
@@ -74,7 +142,13 @@ public class CarRentalCompany implements ICarRentalCompany {
 
 	@Override
 	public Collection<CarType> getAllCarTypes() {
-		return carTypes.values();
+		// Copy: the values view of a map cannot be sent over RMI.
+		return new ArrayList<CarType>(carTypes.values());
+	}
+
+	@Override
+	public CarTypeCatalogue getCarTypeCatalogue() {
+		return catalogue;
 	}
 
 	@Override
@@ -89,21 +163,30 @@ public class CarRentalCompany implements ICarRentalCompany {
 	public boolean isAvailable(String carTypeName, Date start, Date end) {
 		logger.log(Level.INFO, "<{0}> Checking availability for car type {1}", new Object[] { name, carTypeName });
 		if (carTypes.containsKey(carTypeName)) {
-			return getAvailableCarTypes(start, end).contains(carTypes.get(carTypeName));
+			return getSnapshot(carTypeName).hasAvailableCar(start, end);
 		} else {
 			throw new IllegalArgumentException("<" + carTypeName + "> No car type of name " + carTypeName);
 		}
 	}
 
 	@Override
-	public synchronized Set<CarType> getAvailableCarTypes(Date start, Date end) {
-		Set<CarType> availableCarTypes = new HashSet<CarType>();
-		for (Car car : cars) {
-			if (car.isAvailable(start, end)) {
-				availableCarTypes.add(car.getType());
-			}
+	public Set<CarType> getAvailableCarTypes(Date start, Date end) {
+		return catalogue.expand(getAvailableCarTypeIds(start, end));
+	}
+
+	@Override
+	public BitSet getAvailableCarTypeIds(Date start, Date end) {
+		BitSet availableIds = new BitSet(catalogue.size());
+		for (int id = 0; id < catalogue.size(); id++) {
+			if (getSnapshot(catalogue.get(id).getName()).hasAvailableCar(start, end))
+				availableIds.set(id);
 		}
-		return availableCarTypes;
+		return availableIds;
+	}
+
+	@Override
+	public long getVersion() {
+		return version.get();
 	}
 
 	/*********
@@ -111,29 +194,237 @@ public class CarRentalCompany implements ICarRentalCompany {
 	 *********/
 
 	private Car getCar(int uid) {
-		for (Car car : cars) {
-			if (car.getId() == uid)
-				return car;
-		}
+		Car car = carsById.get(uid);
+		if (car != null)
+			return car;
 		throw new IllegalArgumentException("<" + name + "> No car with uid " + uid);
 	}
 
-	private synchronized List<Car> getAvailableCars(String carType, Date start, Date end) {
+	private List<Car> getCars(String carType) {
+		return carsByType.getOrDefault(carType, Collections.<Car>emptyList());
+	}
+
+	/**
+	 * Get the available cars of the given type. The caller must hold the lock of that type.
+	 */
+	private List<Car> getAvailableCars(String carType, Date start, Date end) {
 		List<Car> availableCars = new LinkedList<Car>();
-		for (Car car : cars) {
-			if (car.getType().getName().equals(carType) && car.isAvailable(start, end)) {
+		for (Car car : getCars(carType)) {
+			if (car.isAvailable(start, end)) {
 				availableCars.add(car);
 			}
 		}
 		return availableCars;
 	}
 
+	/***********************
+	 * LOCKS AND SNAPSHOTS *
+	 ***********************/
+
+	private Lock getLock(String carType) {
+		Lock lock = locks.get(carType);
+		if (lock == null)
+			throw new IllegalArgumentException("<" + carType + "> No car type of name " + carType);
+		return lock;
+	}
+
+	/**
+	 * Acquire the locks of all given car types, always in the same (alphabetical) order so that
+	 * concurrent batches cannot deadlock. Returns the acquired locks.
+	 */
+	private List<Lock> lockAll(Collection<String> carTypes) {
+		List<Lock> acquired = new ArrayList<>();
+		try {
+			for (String carType : new TreeSet<>(carTypes)) {
+				Lock lock = getLock(carType);
+				lock.lock();
+				acquired.add(lock);
+			}
+		} catch (RuntimeException exception) {
+			unlockAll(acquired);
+			throw exception;
+		}
+		return acquired;
+	}
+
+	private void unlockAll(List<Lock> acquired) {
+		for (int i = acquired.size() - 1; i >= 0; i--)
+			acquired.get(i).unlock();
+	}
+
+	private FleetSnapshot getSnapshot(String carType) {
+		FleetSnapshot snapshot = snapshots.get(carType);
+		if (snapshot == null)
+			throw new IllegalArgumentException("<" + carType + "> No car type of name " + carType);
+		return snapshot;
+	}
+
+	/**
+	 * Publish a new snapshot of the given car type, after the given reservation was added
+	 * to one of the cars. The caller must hold the lock of that type.
+	 */
+	private void publishBooked(String carType, Reservation res) {
+		snapshots.put(carType, getSnapshot(carType).booked(getCars(carType), res));
+		version.incrementAndGet();
+	}
+
+	/**
+	 * Publish a new snapshot of the given car type, after the given reservation was removed
+	 * from one of the cars. The caller must hold the lock of that type.
+	 */
+	private void publishReleased(String carType, Reservation res) {
+		snapshots.put(carType, getSnapshot(carType).released(getCars(carType), res));
+		version.incrementAndGet();
+	}
+
+	/**
+	 * Publish a new snapshot of the given car type, after holds of its cars were turned into
+	 * reservations. The caller must hold the lock of that type.
+	 */
+	private void publishPromoted(String carType) {
+		snapshots.put(carType, getSnapshot(carType).promoted(getCars(carType)));
+		version.incrementAndGet();
+	}
+
+	/**************
+	 * DURABILITY *
+	 **************/
+
+	/**
+	 * Restore the reservations from the latest snapshot and the log after it in the given
+	 * directory, log all later changes there, and take a new snapshot at the given interval.
+	 * Must be done before the company is used.
+	 *
+	 * @param fileName the name of the snapshot and log files, without extension
+	 */
+	void recover(Path directory, String fileName, long snapshotIntervalMillis) throws IOException {
+		long startTime = System.nanoTime();
+		snapshotFile = directory.resolve(fileName + ".snapshot");
+		long lastSegment = SnapshotFile.load(snapshotFile, renters, carsById);
+		long nbSnapshotted = 0;
+		for (Car car : carsById.values())
+			nbSnapshotted += car.getNumberReservations();
+
+		log = ReservationLog.open(directory, fileName);
+		long nbReplayed = log.replay(lastSegment, (confirmed, carId, renter, start, end, price) -> {
+			Car car = carsById.get(carId);
+			if (car == null) {
+				logger.log(Level.WARNING, "<{0}> Skipping logged reservation of unknown car {1}", new Object[] { name, carId });
+				return;
+			}
+			Reservation res = new Reservation(renter, start, end, name, car.getType().getName(), price, carId);
+			if (confirmed)
+				car.addReservation(res);
+			else
+				car.removeReservation(res);
+		});
+		log.deleteUpTo(lastSegment);
+		carsByType.entrySet().parallelStream()
+			.forEach(fleet -> snapshots.put(fleet.getKey(), FleetSnapshot.of(fleet.getValue())));
+		statistics.recount(snapshots);
+		reservationsByRenter.rebuild(snapshots);
+		version.incrementAndGet();
+		logger.log(Level.INFO, "<{0}> Restored {1} reservations from the snapshot and {2} log records in {3} ms",
+				new Object[] { name, nbSnapshotted, nbReplayed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) });
+
+		ScheduledExecutorService snapshotter = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, name + " snapshots");
+			thread.setDaemon(true);
+			return thread;
+		});
+		snapshotter.scheduleWithFixedDelay(() -> {
+			try {
+				takeSnapshot();
+			} catch (IOException | RuntimeException exception) {
+				logger.log(Level.WARNING, "<" + name + "> Could not take a snapshot", exception);
+			}
+		}, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Write all confirmed reservations to the snapshot file, and delete the log they are in.
+	 *
+	 * All car types are locked just long enough to pick up their (immutable) fleet snapshots
+	 * and to mark where a new log segment starts, so the file holds exactly the reservations
+	 * logged before that segment. Writing the old segment and the file happens without any locks.
+	 */
+	void takeSnapshot() throws IOException {
+		long startTime = System.nanoTime();
+		List<FleetSnapshot> fleets;
+		long lastSegment;
+		List<Lock> acquired = lockAll(locks.keySet());
+		try {
+			fleets = new ArrayList<>(snapshots.values());
+			lastSegment = log.rotate();
+		} finally {
+			unlockAll(acquired);
+		}
+		log.sync();
+		SnapshotFile.write(snapshotFile, lastSegment, renters, fleets);
+		log.deleteUpTo(lastSegment);
+		logger.log(Level.INFO, "<{0}> Took a snapshot in {1} ms",
+				new Object[] { name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) });
+	}
+
+	/**
+	 * Log, count and index that the given reservation was added. The caller must hold the lock of its car type.
+	 */
+	private void recordConfirmed(Reservation res) {
+		if (log != null)
+			log.appendConfirmed(res);
+		statistics.confirmed(res);
+		reservationsByRenter.confirmed(res);
+	}
+
+	/**
+	 * Log, count and index that the given reservation was removed. The caller must hold the lock of its car type.
+	 */
+	private void recordCancelled(Reservation res) {
+		if (log != null)
+			log.appendCancelled(res);
+		statistics.cancelled(res);
+		reservationsByRenter.cancelled(res);
+	}
+
+	/**
+	 * Wait until the changes logged so far are durable. Called after releasing the locks, so
+	 * other bookings can go on (and share the same write to disk) in the meantime.
+	 */
+	private void syncLog() throws IOException {
+		if (log != null)
+			log.sync();
+	}
+
+	/**
+	 * Make the given new reservations durable. If the log cannot be written, they are removed
+	 * again and the booking fails.
+	 */
+	private void syncBooked(List<Reservation> booked) throws ReservationException {
+		try {
+			syncLog();
+		} catch (IOException exception) {
+			releaseAll(booked);
+			throw new ReservationException("<" + name + "> Could not write the reservation log, the booking was undone");
+		}
+	}
+
+	/**
+	 * Make the cancellations logged so far durable.
+	 */
+	private void syncCancelled() throws RemoteException {
+		try {
+			syncLog();
+		} catch (IOException exception) {
+			throw new RemoteException("<" + name + "> Could not write the reservation log", exception);
+		}
+	}
+
 	/****************
 	 * RESERVATIONS *
 	 ****************/
 
 	@Override
-	public synchronized Quote createQuote(ReservationConstraints constraints, String client) throws ReservationException {
+	public Quote createQuote(ReservationConstraints constraints, String client) throws ReservationException {
 		logger.log(Level.INFO, "<{0}> Creating tentative reservation for {1} with constraints {2}",
 				new Object[] { name, client, constraints.toString() });
 
@@ -146,8 +437,11 @@ public class CarRentalCompany implements ICarRentalCompany {
 		double price = calculateRentalPrice(type.getRentalPricePerDay(), constraints.getStartDate(),
 				constraints.getEndDate());
 
-		return new Quote(client, constraints.getStartDate(), constraints.getEndDate(), getName(),
+		Quote quote = new Quote(client, constraints.getStartDate(), constraints.getEndDate(), getName(),
 				constraints.getCarType(), price);
+		if (quoteHoldMillis > 0)
+			holdForQuote(quote, quoteHoldMillis);
+		return quote;
 	}
 
 	// Implementation can be subject to different pricing strategies
@@ -156,40 +450,428 @@ public class CarRentalCompany implements ICarRentalCompany {
 	}
 
 	@Override
-	public synchronized Reservation confirmQuote(Quote quote) throws ReservationException {
+	public Reservation confirmQuote(Quote quote) throws ReservationException {
 		logger.log(Level.INFO, "<{0}> Reservation of {1}", new Object[] { name, quote.toString() });
+		checkCarType(quote);
+
+		Reservation res;
+		Lock lock = getLock(quote.getCarType());
+		lock.lock();
+		try {
+			res = book(quote);
+		} finally {
+			lock.unlock();
+		}
+		syncBooked(Collections.singletonList(res));
+		return res;
+	}
+
+	@Override
+	public void cancelReservation(Reservation res) throws RemoteException {
+		logger.log(Level.INFO, "<{0}> Cancelling reservation {1}", new Object[] { name, res.toString() });
+		Car car = getCar(res.getCarId());
+		Lock lock = getLock(car.getType().getName());
+		lock.lock();
+		try {
+			release(car, res);
+		} finally {
+			lock.unlock();
+		}
+		syncCancelled();
+	}
+
+	private void checkCarType(Quote quote) throws ReservationException {
+		if (!locks.containsKey(quote.getCarType()))
+			throw new ReservationException("Reservation failed, no cars of type " + quote.getCarType());
+	}
+
+	/**
+	 * Pick a random available car for the given quote. The caller must hold the lock of its car type.
+	 */
+	private Car pickAvailableCar(Quote quote) throws ReservationException {
 		List<Car> availableCars = getAvailableCars(quote.getCarType(), quote.getStartDate(), quote.getEndDate());
 		if (availableCars.isEmpty())
 			throw new ReservationException("Reservation failed, all cars of type " + quote.getCarType()
 					+ " are unavailable from " + quote.getStartDate() + " to " + quote.getEndDate());
-		Car car = availableCars.get((int) (Math.random() * availableCars.size()));
+		return availableCars.get((int) (Math.random() * availableCars.size()));
+	}
 
+	/**
+	 * Book the car held for the given quote, or else a random available car. The caller must hold
+	 * the lock of its car type.
+	 */
+	private Reservation book(Quote quote) throws ReservationException {
+		Reservation held = takeQuoteHold(quote);
+		if (held != null) {
+			Car car = getCar(held.getCarId());
+			car.removeHold(held);
+			car.addReservation(held);
+			recordConfirmed(held);
+			publishPromoted(quote.getCarType());
+			return held;
+		}
+
+		Car car = pickAvailableCar(quote);
 		Reservation res = new Reservation(quote, car.getId());
 		car.addReservation(res);
+		recordConfirmed(res);
+		publishBooked(quote.getCarType(), res);
 		return res;
 	}
 
+	/**
+	 * Remove the given reservation from the given car. The caller must hold the lock of its car type.
+	 */
+	private void release(Car car, Reservation res) {
+		if (car.removeReservation(res)) {
+			recordCancelled(res);
+			publishReleased(car.getType().getName(), res);
+		}
+	}
+
+	/***********
+	 * BATCHES *
+	 ***********/
+
+	/**
+	 * Create a quote for each of the given constraints, while holding the locks of all their car
+	 * types, so the quotes see one state of the fleet. Fails if one of them cannot be satisfied.
+	 */
 	@Override
-	public synchronized void cancelReservation(Reservation res) {
-		logger.log(Level.INFO, "<{0}> Cancelling reservation {1}", new Object[] { name, res.toString() });
-		getCar(res.getCarId()).removeReservation(res);
+	public List<Quote> createQuotes(List<ReservationConstraints> constraints, String client) throws ReservationException {
+		Set<String> types = new HashSet<>();
+		for (ReservationConstraints constraint : constraints) {
+			// Unknown car types are left to createQuote, which reports them.
+			if (locks.containsKey(constraint.getCarType()))
+				types.add(constraint.getCarType());
+		}
+
+		List<Quote> quotes = new ArrayList<>(constraints.size());
+		List<Lock> acquired = lockAll(types);
+		try {
+			for (ReservationConstraints constraint : constraints)
+				quotes.add(createQuote(constraint, client));
+		} catch (ReservationException | RuntimeException exception) {
+			// Do not keep cars held for the quotes of a failed batch.
+			for (Quote quote : quotes)
+				releaseQuote(quote);
+			throw exception;
+		} finally {
+			unlockAll(acquired);
+		}
+		return quotes;
+	}
+
+	/**
+	 * Confirm all given quotes at once, while holding the locks of all their car types.
+	 * Either all quotes are confirmed, or none of them is.
+	 */
+	@Override
+	public List<Reservation> confirmQuotes(List<Quote> quotes) throws ReservationException {
+		logger.log(Level.INFO, "<{0}> Reservation of {1} quotes", new Object[] { name, quotes.size() });
+		Set<String> types = new HashSet<>();
+		for (Quote quote : quotes) {
+			checkCarType(quote);
+			types.add(quote.getCarType());
+		}
+
+		List<Reservation> reservations = new ArrayList<>(quotes.size());
+		List<Lock> acquired = lockAll(types);
+		try {
+			for (Quote quote : quotes)
+				reservations.add(book(quote));
+		} catch (ReservationException | RuntimeException exception) {
+			for (Reservation res : reservations)
+				release(getCar(res.getCarId()), res);
+			throw exception;
+		} finally {
+			unlockAll(acquired);
+		}
+		syncBooked(reservations);
+		return reservations;
+	}
+
+	/**
+	 * Cancel all given reservations at once, while holding the locks of all their car types.
+	 */
+	@Override
+	public void cancelReservations(List<Reservation> reservations) throws RemoteException {
+		logger.log(Level.INFO, "<{0}> Cancelling {1} reservations", new Object[] { name, reservations.size() });
+		releaseAll(reservations);
+		syncCancelled();
+	}
+
+	/**
+	 * Remove all given reservations, while holding the locks of all their car types.
+	 */
+	private void releaseAll(List<Reservation> reservations) {
+		Set<String> types = new HashSet<>();
+		for (Reservation res : reservations)
+			types.add(getCar(res.getCarId()).getType().getName());
+
+		List<Lock> acquired = lockAll(types);
+		try {
+			for (Reservation res : reservations)
+				release(getCar(res.getCarId()), res);
+		} finally {
+			unlockAll(acquired);
+		}
 	}
 
+	/********************
+	 * TWO-PHASE COMMIT *
+	 ********************/
+
+	/**
+	 * Hold a car for each of the given quotes on behalf of the given transaction, while holding
+	 * the locks of all their car types. Held cars are unavailable to others, but only become
+	 * reservations when the transaction is committed. Either all quotes are held, or none of them is.
+	 */
 	@Override
-	public synchronized List<Reservation> getReservationByRenter(String clientName) throws RemoteException {
-		List<Reservation> lst = new ArrayList<>();
+	public void prepareQuotes(String transactionId, List<Quote> quotes) throws ReservationException {
+		logger.log(Level.INFO, "<{0}> Preparing {1} quotes for transaction {2}",
+				new Object[] { name, quotes.size(), transactionId });
+		Set<String> types = new HashSet<>();
+		for (Quote quote : quotes) {
+			checkCarType(quote);
+			types.add(quote.getCarType());
+		}
 
-		for (Car car : cars)
-			lst.addAll(car.getReservationForRenter(clientName));
-		return lst;
+		List<Reservation> holds = new ArrayList<>(quotes.size());
+		List<Lock> acquired = lockAll(types);
+		try {
+			for (Quote quote : quotes)
+				holds.add(hold(quote));
+			PreparedTransaction transaction = new PreparedTransaction(holds);
+			transaction.timeout = timers.schedule(() -> expirePrepared(transactionId, transaction, false),
+					PREPARED_TIMEOUT_MILLIS);
+			if (prepared.putIfAbsent(transactionId, transaction) != null) {
+				transaction.timeout.cancel();
+				throw new ReservationException("<" + name + "> Transaction " + transactionId + " was already prepared");
+			}
+		} catch (ReservationException | RuntimeException exception) {
+			for (Reservation res : holds)
+				releaseHold(getCar(res.getCarId()), res);
+			throw exception;
+		} finally {
+			unlockAll(acquired);
+		}
 	}
 
+	/**
+	 * Turn the holds of the given prepared transaction into reservations.
+	 *
+	 * @throws ReservationException if the transaction was not prepared, or already expired
+	 */
 	@Override
-	public synchronized int getNumberOfReservationsForCarType(String carType) throws RemoteException {
-		return cars.stream()
-			.filter(car -> car.getType().getName().equals(carType))
-			.map(car -> car.getNumberReservations())
-			.reduce((x, y) -> x + y).get();
+	public List<Reservation> commitQuotes(String transactionId) throws ReservationException {
+		logger.log(Level.INFO, "<{0}> Committing transaction {1}", new Object[] { name, transactionId });
+		PreparedTransaction transaction = prepared.get(transactionId);
+		if (transaction == null)
+			throw new ReservationException("<" + name + "> No prepared transaction " + transactionId);
+		synchronized (transaction) {
+			// Aborted or expired while waiting for the transaction.
+			if (prepared.get(transactionId) != transaction)
+				throw new ReservationException("<" + name + "> No prepared transaction " + transactionId);
+			// Committing twice (a retry of a commit whose answer got lost) gives the same reservations.
+			if (transaction.committed)
+				return transaction.holds;
+			transaction.timeout.cancel();
+
+			Set<String> types = new HashSet<>();
+			for (Reservation res : transaction.holds)
+				types.add(res.getCarType());
+			List<Lock> acquired = lockAll(types);
+			try {
+				for (Reservation res : transaction.holds) {
+					Car car = getCar(res.getCarId());
+					car.removeHold(res);
+					car.addReservation(res);
+					recordConfirmed(res);
+				}
+				for (String type : types)
+					publishPromoted(type);
+			} finally {
+				unlockAll(acquired);
+			}
+			try {
+				syncBooked(transaction.holds);
+			} catch (ReservationException exception) {
+				prepared.remove(transactionId, transaction);
+				throw exception;
+			}
+			transaction.committed = true;
+			transaction.timeout = timers.schedule(() -> expirePrepared(transactionId, transaction, true),
+					PREPARED_TIMEOUT_MILLIS);
+		}
+		return transaction.holds;
+	}
+
+	/**
+	 * Release the holds of the given prepared transaction, if it still exists. If it was
+	 * committed already (and not forgotten yet), its reservations are cancelled instead, so a
+	 * coordinator that did not get the answer of the commit can still undo it.
+	 */
+	@Override
+	public void abortQuotes(String transactionId) throws RemoteException {
+		logger.log(Level.INFO, "<{0}> Aborting transaction {1}", new Object[] { name, transactionId });
+		PreparedTransaction transaction = prepared.get(transactionId);
+		if (transaction == null)
+			return;
+		synchronized (transaction) {
+			if (!prepared.remove(transactionId, transaction))
+				return;
+			transaction.timeout.cancel();
+			if (transaction.committed)
+				cancelReservations(transaction.holds);
+			else
+				releaseHolds(transaction.holds);
+		}
+	}
+
+	/**
+	 * Release the holds of a transaction that was prepared too long ago, or forget one that was
+	 * committed long enough ago. A timer that fires after the transaction was committed is ignored.
+	 */
+	private void expirePrepared(String transactionId, PreparedTransaction transaction, boolean committed) {
+		synchronized (transaction) {
+			if (transaction.committed != committed || !prepared.remove(transactionId, transaction))
+				return;
+			if (!committed) {
+				logger.log(Level.WARNING, "<{0}> Transaction {1} expired, releasing its holds",
+						new Object[] { name, transactionId });
+				releaseHolds(transaction.holds);
+			}
+		}
+	}
+
+	private void releaseHolds(List<Reservation> holds) {
+		Set<String> types = new HashSet<>();
+		for (Reservation res : holds)
+			types.add(res.getCarType());
+		List<Lock> acquired = lockAll(types);
+		try {
+			for (Reservation res : holds)
+				releaseHold(getCar(res.getCarId()), res);
+		} finally {
+			unlockAll(acquired);
+		}
+	}
+
+	/**
+	 * Hold a random available car for the given quote, or take over the car already held for it.
+	 * The caller must hold the lock of its car type.
+	 */
+	private Reservation hold(Quote quote) throws ReservationException {
+		Reservation held = takeQuoteHold(quote);
+		if (held != null)
+			return held;
+
+		Car car = pickAvailableCar(quote);
+		Reservation res = new Reservation(quote, car.getId());
+		car.addHold(res);
+		publishBooked(quote.getCarType(), res);
+		return res;
+	}
+
+	/**
+	 * Remove the given hold from the given car. The caller must hold the lock of its car type.
+	 */
+	private void releaseHold(Car car, Reservation res) {
+		if (car.removeHold(res))
+			publishReleased(car.getType().getName(), res);
+	}
+
+	private static class PreparedTransaction {
+		final List<Reservation> holds;
+		volatile TimerWheel.Timeout timeout;
+		// Set once the holds became reservations; only changed while synchronized on the transaction.
+		boolean committed;
+
+		PreparedTransaction(List<Reservation> holds) {
+			this.holds = holds;
+		}
+	}
+
+	/***************
+	 * QUOTE HOLDS *
+	 ***************/
+
+	/**
+	 * Let createQuote hold a car for every quote during the given time, so that confirming the
+	 * quote in that time cannot fail and does not have to look for a car. Zero disables this.
+	 */
+	public void setQuoteHoldMillis(long quoteHoldMillis) {
+		this.quoteHoldMillis = quoteHoldMillis;
+	}
+
+	/**
+	 * Release the car held for the given quote, if any, e.g. because the client picked another quote.
+	 */
+	@Override
+	public void releaseQuote(Quote quote) {
+		HeldQuote held = heldQuotes.remove(quote);
+		if (held != null) {
+			held.timeout.cancel();
+			releaseHolds(Collections.singletonList(held.hold));
+		}
+	}
+
+	private void holdForQuote(Quote quote, long holdMillis) throws ReservationException {
+		Lock lock = getLock(quote.getCarType());
+		lock.lock();
+		try {
+			Car car = pickAvailableCar(quote);
+			Reservation res = new Reservation(quote, car.getId());
+			HeldQuote held = new HeldQuote(res);
+			held.timeout = timers.schedule(() -> expireQuoteHold(quote, held), holdMillis);
+			if (heldQuotes.putIfAbsent(quote, held) != null) {
+				// An identical quote that is already held keeps its car.
+				held.timeout.cancel();
+				return;
+			}
+			car.addHold(res);
+			publishBooked(quote.getCarType(), res);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void expireQuoteHold(Quote quote, HeldQuote held) {
+		if (heldQuotes.remove(quote, held))
+			releaseHolds(Collections.singletonList(held.hold));
+	}
+
+	/**
+	 * Take over the car held for the given quote, if any. The caller must hold the lock of its car type.
+	 *
+	 * @return the hold, which is still in the hold index of its car, or null if the quote has no hold
+	 */
+	private Reservation takeQuoteHold(Quote quote) {
+		HeldQuote held = heldQuotes.remove(quote);
+		if (held == null)
+			return null;
+		held.timeout.cancel();
+		return held.hold;
+	}
+
+	private static class HeldQuote {
+		final Reservation hold;
+		volatile TimerWheel.Timeout timeout;
+
+		HeldQuote(Reservation hold) {
+			this.hold = hold;
+		}
+	}
+
+	@Override
+	public List<Reservation> getReservationByRenter(String clientName) throws RemoteException {
+		return reservationsByRenter.getReservations(clientName);
+	}
+
+	@Override
+	public int getNumberOfReservationsForCarType(String carType) throws RemoteException {
+		return statistics.getNumberOfReservations(carType);
 	}
 
 	@Override
@@ -214,34 +896,41 @@ public class CarRentalCompany implements ICarRentalCompany {
 	 * Get a map that gives the number of reservations per renter.
 	 */
 	@Override
-	public synchronized Map<String, Integer> getNumResByRenter() throws RemoteException {
-		Map<String, Integer> numResByRenter = new HashMap<>();
-		for (Car car : cars) {
-			for (Reservation reservation : car.getAllReservations())
-				numResByRenter.put(reservation.getCarRenter(), numResByRenter.getOrDefault(reservation.getCarRenter(), 0) + 1);
-		}
-		
-		return numResByRenter;
+	public Map<String, Integer> getNumResByRenter() throws RemoteException {
+		return statistics.getNumberOfReservationsByRenter();
+	}
+
+	@Override
+	public Map<String, Integer> getNumResByRenter(Collection<String> renterNames) throws RemoteException {
+		return statistics.getNumberOfReservations(renterNames);
+	}
+
+	@Override
+	public Map<String, Integer> getTopRenters(int k) throws RemoteException {
+		return statistics.getTopRenters(k);
+	}
+
+	@Override
+	public Map<String, Integer> getRentersWithAtLeast(int nbReservations) throws RemoteException {
+		return statistics.getRentersWithAtLeast(nbReservations);
 	}
 	
 	/**
-	 * Get the most popular car type in a specific period.
+	 * Get the car type with the most reservations that start strictly between the given dates
+	 * (the first in the catalogue if there is a tie), or null if the company has no car types.
 	 */
 	@Override
-	public synchronized CarType getMostPopularCarType(Date start, Date end) throws RemoteException {
-		Map<CarType, Integer> numResByCarType = new HashMap<>();
-		for (Car car : cars) {
-			long nbReservations = car.getAllReservations().stream()
-				.filter(reservation -> start.before(reservation.getStartDate()) && end.after(reservation.getStartDate()))
-				.count();
-			
-			numResByCarType.put(car.getType(), numResByCarType.getOrDefault(car.getType(), 0) + (int)nbReservations);
-		}
-		
-		return numResByCarType.entrySet().stream()
-			.reduce((Map.Entry<CarType, Integer> entry1, Map.Entry<CarType, Integer> entry2) ->
-				(entry1.getValue() < entry2.getValue() ? entry2 : entry1))
-			.get().getKey();
+	public CarType getMostPopularCarType(Date start, Date end) throws RemoteException {
+		CarType mostPopular = null;
+		long mostReservations = -1;
+		for (CarType type : catalogue.getTypes()) {
+			long nbReservations = statistics.getNumberOfReservationsStarting(type.getName(), start, end);
+			if (nbReservations > mostReservations) {
+				mostPopular = type;
+				mostReservations = nbReservations;
+			}
+		}
+		return mostPopular;
 	}
 
 }
\ No newline at end of file
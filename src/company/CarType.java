@@ -1,8 +1,11 @@
 package company;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 
-public class CarType implements Serializable {
+public class CarType implements Externalizable {
     
     /**
 	 * 
@@ -27,6 +30,12 @@ public class CarType implements Serializable {
         this.smokingAllowed = smokingAllowed;
     }
 
+    /**
+     * Only for deserialization.
+     */
+    public CarType() {
+    }
+
     public String getName() {
     	return name;
     }
@@ -47,6 +56,28 @@ public class CarType implements Serializable {
     	return trunkSpace;
     }
     
+    /*****************
+     * SERIALIZATION *
+     *****************/
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        WireFormat.writeString(out, name);
+        WireFormat.writeVarInt(out, nbOfSeats);
+        out.writeFloat(trunkSpace);
+        out.writeDouble(rentalPricePerDay);
+        out.writeBoolean(smokingAllowed);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        name = WireFormat.readString(in);
+        nbOfSeats = WireFormat.readVarInt(in);
+        trunkSpace = in.readFloat();
+        rentalPricePerDay = in.readDouble();
+        smokingAllowed = in.readBoolean();
+    }
+
     /*************
      * TO STRING *
      *************/
@@ -0,0 +1,72 @@
+package company;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The car types of a company, each with a small integer id: its position in the catalogue.
+ *
+ * A company publishes its catalogue once; after that, sets of its car types are sent as
+ * bitsets of ids and only expanded to CarType objects where they are handed to a caller.
+ */
+public class CarTypeCatalogue implements Serializable {
+
+	private static final long serialVersionUID = 4075862815946542231L;
+	private final CarType[] types;
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	/**
+	 * Create a catalogue of the given car types, numbered in the order of their names.
+	 */
+	public CarTypeCatalogue(Collection<CarType> types) {
+		this.types = types.toArray(new CarType[0]);
+		Arrays.sort(this.types, Comparator.comparing(CarType::getName));
+	}
+
+	/***********
+	 * LOOKUPS *
+	 ***********/
+
+	public int size() {
+		return types.length;
+	}
+
+	public CarType get(int id) {
+		return types[id];
+	}
+
+	/**
+	 * Get the id of the car type with the given name, or -1 if there is none.
+	 */
+	public int getId(String carTypeName) {
+		for (int id = 0; id < types.length; id++) {
+			if (types[id].getName().equals(carTypeName))
+				return id;
+		}
+		return -1;
+	}
+
+	public List<CarType> getTypes() {
+		return Collections.unmodifiableList(Arrays.asList(types));
+	}
+
+	/**
+	 * Get the car types with the given ids.
+	 */
+	public Set<CarType> expand(BitSet ids) {
+		Set<CarType> expanded = new HashSet<>();
+		for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1))
+			expanded.add(types[id]);
+		return expanded;
+	}
+}
@@ -0,0 +1,52 @@
+package company;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.util.Date;
+
+/**
+ * Conversions between dates and day numbers (days since 1/1/1970) in the default time zone,
+ * which is also the time zone in which the client scripts parse their dates.
+ */
+public final class Days {
+
+	private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+	private Days() {
+	}
+
+	/**
+	 * Get the number of the day on which the given date falls.
+	 */
+	public static int toEpochDay(Date date) {
+		ZoneId zone = ZoneId.systemDefault();
+		ZoneRules rules = zone.getRules();
+		// Without daylight saving time (such as in UTC), every day is equally long.
+		if (rules.isFixedOffset())
+			return (int) Math.floorDiv(date.getTime() + getOffsetMillis(rules), MILLIS_PER_DAY);
+		return (int) Instant.ofEpochMilli(date.getTime()).atZone(zone).toLocalDate().toEpochDay();
+	}
+
+	/**
+	 * Get the date at which the given day starts.
+	 */
+	public static Date toDate(long epochDay) {
+		return Date.from(LocalDate.ofEpochDay(epochDay).atStartOfDay(ZoneId.systemDefault()).toInstant());
+	}
+
+	/**
+	 * Check whether the given date is exactly the start of a day.
+	 */
+	public static boolean isStartOfDay(Date date) {
+		ZoneRules rules = ZoneId.systemDefault().getRules();
+		if (rules.isFixedOffset())
+			return Math.floorMod(date.getTime() + getOffsetMillis(rules), MILLIS_PER_DAY) == 0;
+		return toDate(toEpochDay(date)).getTime() == date.getTime();
+	}
+
+	private static long getOffsetMillis(ZoneRules rules) {
+		return rules.getOffset(Instant.EPOCH).getTotalSeconds() * 1000L;
+	}
+}
@@ -0,0 +1,172 @@
+package company;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Parser for fleet files, which describe a company and the cars it owns:
+ *
+ * <pre>
+ * # comment
+ * -name,region:region
+ * type name,nb of seats,trunk space in liters,price per day,smoking,number of cars of this type
+ * </pre>
+ *
+ * The file is scanned as bytes, so only the name, the regions and one car type per line
+ * become objects. Since a single line may stand for millions of cars, the cars are only
+ * created after the whole file was read: in parallel per line, with consecutive ids.
+ */
+class FleetFile {
+
+	private final String source;
+	private final ByteBuffer in;
+	private int lineNumber;
+	// Bounds of the current field within the current line.
+	private int fieldStart;
+	private int fieldEnd;
+	private int lineEnd;
+
+	private FleetFile(String source, ByteBuffer in) {
+		this.source = source;
+		this.in = in;
+	}
+
+	/**
+	 * Parse the fleet file in the given buffer, from its position to its limit.
+	 *
+	 * @param source the name of the file, for error messages
+	 */
+	public static CRCServer.CrcData parse(String source, ByteBuffer in) throws IOException {
+		return new FleetFile(source, in).parse();
+	}
+
+	private CRCServer.CrcData parse() throws IOException {
+		CRCServer.CrcData out = new CRCServer.CrcData();
+		List<CarType> types = new ArrayList<CarType>();
+		List<Integer> counts = new ArrayList<Integer>();
+		while (nextLine()) {
+			if (fieldStart == lineEnd || in.get(fieldStart) == '#') {
+				// empty line or comment -> skip
+			} else if (in.get(fieldStart) == '-') {
+				fieldStart++;
+				out.name = nextString();
+				out.regions = Arrays.asList(nextString().split(":"));
+			} else {
+				types.add(new CarType(nextString(), nextInt(), nextFloat(), nextDouble(),
+						Boolean.parseBoolean(nextString())));
+				counts.add(nextInt());
+			}
+		}
+		out.cars = createCars(types, counts);
+		return out;
+	}
+
+	/**
+	 * Create the given number of cars of each type, numbering all cars from 0.
+	 */
+	private List<Car> createCars(List<CarType> types, List<Integer> counts) throws IOException {
+		int[] firstIds = new int[types.size() + 1];
+		for (int i = 0; i < types.size(); i++) {
+			long next = (long) firstIds[i] + counts.get(i);
+			if (next > Integer.MAX_VALUE)
+				throw new IOException("Too many cars in " + source);
+			firstIds[i + 1] = (int) next;
+		}
+		Car[] cars = new Car[firstIds[types.size()]];
+		IntStream.range(0, types.size()).parallel().forEach(i -> {
+			for (int id = firstIds[i]; id < firstIds[i + 1]; id++)
+				cars[id] = new Car(id, types.get(i));
+		});
+		return Arrays.asList(cars);
+	}
+
+	/************
+	 * SCANNING *
+	 ************/
+
+	/**
+	 * Move to the next line, if any. Its first field starts at the start of the line.
+	 */
+	private boolean nextLine() {
+		if (!in.hasRemaining())
+			return false;
+		lineNumber++;
+		int start = in.position();
+		int end = start;
+		while (end < in.limit() && in.get(end) != '\n')
+			end++;
+		in.position(end < in.limit() ? end + 1 : end);
+		if (end > start && in.get(end - 1) == '\r')
+			end--;
+		fieldStart = start;
+		fieldEnd = start;
+		lineEnd = end;
+		return true;
+	}
+
+	/**
+	 * Move to the next comma-separated field of the current line.
+	 */
+	private void nextField() throws IOException {
+		if (fieldStart > lineEnd)
+			throw new IOException(source + " line " + lineNumber + ": missing field");
+		fieldEnd = fieldStart;
+		while (fieldEnd < lineEnd && in.get(fieldEnd) != ',')
+			fieldEnd++;
+	}
+
+	private String nextString() throws IOException {
+		nextField();
+		byte[] bytes = new byte[fieldEnd - fieldStart];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = in.get(fieldStart + i);
+		fieldStart = fieldEnd + 1;
+		return new String(bytes, StandardCharsets.UTF_8).trim();
+	}
+
+	private float nextFloat() throws IOException {
+		String field = nextString();
+		try {
+			return Float.parseFloat(field);
+		} catch (NumberFormatException exception) {
+			throw new IOException(source + " line " + lineNumber + ": not a number: " + field, exception);
+		}
+	}
+
+	private double nextDouble() throws IOException {
+		String field = nextString();
+		try {
+			return Double.parseDouble(field);
+		} catch (NumberFormatException exception) {
+			throw new IOException(source + " line " + lineNumber + ": not a number: " + field, exception);
+		}
+	}
+
+	private int nextInt() throws IOException {
+		nextField();
+		int start = fieldStart;
+		int end = fieldEnd;
+		while (start < end && in.get(start) == ' ')
+			start++;
+		while (end > start && in.get(end - 1) == ' ')
+			end--;
+		if (start == end)
+			throw new IOException(source + " line " + lineNumber + ": missing number");
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = in.get(i) - '0';
+			if (digit < 0 || digit > 9)
+				throw new IOException(source + " line " + lineNumber + ": not a number");
+			value = 10 * value + digit;
+			if (value > Integer.MAX_VALUE)
+				throw new IOException(source + " line " + lineNumber + ": number too large");
+		}
+		fieldStart = fieldEnd + 1;
+		return (int) value;
+	}
+}
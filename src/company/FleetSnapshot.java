@@ -0,0 +1,120 @@
+package company;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Immutable, versioned view on the reservations of all cars of one car type.
+ *
+ * A new snapshot is published after every change to the cars of the type (while holding
+ * the lock of that type). Readers only need the latest published snapshot, so they never
+ * wait for writers and writers never wait for readers.
+ */
+class FleetSnapshot {
+
+	private final long version;
+	private final List<Car> cars;
+	private final ReservationIndex[] indexes;
+	private final ReservationIndex[] holdIndexes;
+	// Counts both reservations and holds.
+	private final CapacityTree capacity;
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	private FleetSnapshot(long version, List<Car> cars, CapacityTree capacity) {
+		this.version = version;
+		this.cars = cars;
+		this.indexes = new ReservationIndex[cars.size()];
+		this.holdIndexes = new ReservationIndex[cars.size()];
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = cars.get(i).getReservationIndex();
+			holdIndexes[i] = cars.get(i).getHoldIndex();
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Take the first snapshot of the given cars.
+	 */
+	public static FleetSnapshot of(List<Car> cars) {
+		CapacityTree.Builder capacity = new CapacityTree.Builder();
+		ReservationIndex.Visitor book = (start, end, renter, price) -> capacity.book(new Date(start), new Date(end));
+		for (Car car : cars) {
+			car.getReservationIndex().forEach(book);
+			car.getHoldIndex().forEach(book);
+		}
+		return new FleetSnapshot(0, cars, capacity.build());
+	}
+
+	/**
+	 * Take the snapshot that follows this one, after the given reservation or hold was added to one of the cars.
+	 */
+	public FleetSnapshot booked(List<Car> cars, Reservation reservation) {
+		return new FleetSnapshot(version + 1, cars, capacity.book(reservation));
+	}
+
+	/**
+	 * Take the snapshot that follows this one, after the given reservation or hold was removed from one of the cars.
+	 */
+	public FleetSnapshot released(List<Car> cars, Reservation reservation) {
+		return new FleetSnapshot(version + 1, cars, capacity.release(reservation));
+	}
+
+	/**
+	 * Take the snapshot that follows this one, after holds of the given cars were turned into reservations.
+	 */
+	public FleetSnapshot promoted(List<Car> cars) {
+		return new FleetSnapshot(version + 1, cars, capacity);
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	List<Car> getCars() {
+		return cars;
+	}
+
+	/**
+	 * Get the reservation index of the car at the given position in the list of cars.
+	 */
+	ReservationIndex getReservationIndex(int car) {
+		return indexes[car];
+	}
+
+	/***********
+	 * QUERIES *
+	 ***********/
+
+	public boolean hasAvailableCar(Date start, Date end) {
+		if (!start.before(end))
+			throw new IllegalArgumentException("Illegal given period");
+
+		if (capacity.isFullyBooked(start, end, indexes.length))
+			return false;
+		for (int i = 0; i < indexes.length; i++) {
+			if (!indexes[i].overlaps(start, end) && !holdIndexes[i].overlaps(start, end))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Visit the fields of all reservations, without creating Reservation objects.
+	 */
+	public void forEachReservation(Visitor visitor) {
+		for (int i = 0; i < indexes.length; i++) {
+			Car car = cars.get(i);
+			indexes[i].forEach((start, end, renter, price) -> visitor.visit(car, start, end, renter, price));
+		}
+	}
+
+	/**
+	 * Receives the fields of the reservations of the cars in a snapshot.
+	 */
+	interface Visitor {
+		void visit(Car car, long start, long end, int renter, double price);
+	}
+}
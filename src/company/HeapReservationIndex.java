@@ -0,0 +1,229 @@
+package company;
+
+import java.util.Date;
+
+/**
+ * Reservation index whose nodes are ordinary objects on the heap.
+ *
+ * Nodes only keep the fields that differ between the reservations of one car, as primitives:
+ * the start and end time, the renter (as a symbol) and the price. The car, its type and its
+ * company are the same for all of them, so Reservation objects are only created (by the
+ * car) when they are handed out.
+ */
+class HeapReservationIndex extends ReservationIndex {
+
+	public static final HeapReservationIndex EMPTY = new HeapReservationIndex(null);
+
+	private final Node root;
+
+	private HeapReservationIndex(Node root) {
+		this.root = root;
+	}
+
+	/***********
+	 * QUERIES *
+	 ***********/
+
+	@Override
+	public int size() {
+		return root == null ? 0 : root.size;
+	}
+
+	@Override
+	public boolean overlaps(Date start, Date end) {
+		long from = start.getTime();
+		long until = end.getTime();
+		Node node = root;
+		while (node != null) {
+			if (node.start <= until && node.end >= from)
+				return true;
+			// If the left subtree reaches far enough, any overlap must be in there.
+			if (node.left != null && node.left.maxEnd >= from)
+				node = node.left;
+			else
+				node = node.right;
+		}
+		return false;
+	}
+
+	@Override
+	public void forEach(Visitor visitor) {
+		forEach(root, visitor);
+	}
+
+	private static void forEach(Node node, Visitor visitor) {
+		while (node != null) {
+			forEach(node.left, visitor);
+			visitor.visit(node.start, node.end, node.renter, node.price);
+			node = node.right;
+		}
+	}
+
+	/***********
+	 * UPDATES *
+	 ***********/
+
+	@Override
+	public ReservationIndex insert(long start, long end, int renter, double price) {
+		return new HeapReservationIndex(insert(root, new Node(start, end, renter, price)));
+	}
+
+	@Override
+	public ReservationIndex remove(long start, long end, int renter, double price) {
+		Node result = remove(root, new Node(start, end, renter, price));
+		return result == root ? this : new HeapReservationIndex(result);
+	}
+
+	@Override
+	public ReservationIndex build(long[] starts, long[] ends, int[] renters, double[] prices, int count) {
+		if (root != null)
+			throw new IllegalStateException("Can only build an empty index");
+		return new HeapReservationIndex(build(starts, ends, renters, prices, 0, count));
+	}
+
+	private static Node build(long[] starts, long[] ends, int[] renters, double[] prices, int from, int until) {
+		if (from >= until)
+			return null;
+		int middle = (from + until) >>> 1;
+		return new Node(starts[middle], ends[middle], renters[middle], prices[middle],
+				build(starts, ends, renters, prices, from, middle), build(starts, ends, renters, prices, middle + 1, until));
+	}
+
+	private static Node insert(Node node, Node entry) {
+		if (node == null)
+			return entry;
+		// Equal start dates go to the right, which keeps them adjacent in the in-order walk.
+		if (entry.start < node.start)
+			return balance(node, insert(node.left, entry), node.right);
+		return balance(node, node.left, insert(node.right, entry));
+	}
+
+	/**
+	 * Remove the target from the given subtree. Returns the same node if the target is not in it.
+	 */
+	private static Node remove(Node node, Node target) {
+		if (node == null)
+			return null;
+		if (target.start < node.start) {
+			Node left = remove(node.left, target);
+			return left == node.left ? node : balance(node, left, node.right);
+		}
+		if (target.start > node.start) {
+			Node right = remove(node.right, target);
+			return right == node.right ? node : balance(node, node.left, right);
+		}
+		if (node.sameReservation(target)) {
+			if (node.left == null)
+				return node.right;
+			if (node.right == null)
+				return node.left;
+			Node successor = node.right;
+			while (successor.left != null)
+				successor = successor.left;
+			return balance(successor, node.left, removeMin(node.right));
+		}
+		// Another reservation with the same start date: the target may sit in either subtree.
+		Node left = remove(node.left, target);
+		if (left != node.left)
+			return balance(node, left, node.right);
+		Node right = remove(node.right, target);
+		return right == node.right ? node : balance(node, node.left, right);
+	}
+
+	private static Node removeMin(Node node) {
+		if (node.left == null)
+			return node.right;
+		return balance(node, removeMin(node.left), node.right);
+	}
+
+	/*************
+	 * BALANCING *
+	 *************/
+
+	private static int height(Node node) {
+		return node == null ? 0 : node.height;
+	}
+
+	/**
+	 * Create a node with the reservation of the given entry and the given children, rotating if they are out of balance.
+	 */
+	private static Node balance(Node entry, Node left, Node right) {
+		int skew = height(left) - height(right);
+		if (skew > 1) {
+			if (height(left.left) < height(left.right))
+				left = rotateLeft(left);
+			return rotateRight(entry, left, right);
+		}
+		if (skew < -1) {
+			if (height(right.right) < height(right.left))
+				right = rotateRight(right);
+			return rotateLeft(entry, left, right);
+		}
+		return new Node(entry, left, right);
+	}
+
+	private static Node rotateRight(Node node) {
+		return rotateRight(node, node.left, node.right);
+	}
+
+	private static Node rotateRight(Node entry, Node left, Node right) {
+		return new Node(left, left.left, new Node(entry, left.right, right));
+	}
+
+	private static Node rotateLeft(Node node) {
+		return rotateLeft(node, node.left, node.right);
+	}
+
+	private static Node rotateLeft(Node entry, Node left, Node right) {
+		return new Node(right, new Node(entry, left, right.left), right.right);
+	}
+
+	/*********
+	 * NODES *
+	 *********/
+
+	private static class Node {
+		final long start;
+		final long end;
+		final int renter;
+		final double price;
+		final long maxEnd;
+		final int height;
+		final int size;
+		final Node left;
+		final Node right;
+
+		Node(long start, long end, int renter, double price) {
+			this(start, end, renter, price, null, null);
+		}
+
+		/**
+		 * Copy the reservation of the given entry into a node with the given children.
+		 */
+		Node(Node entry, Node left, Node right) {
+			this(entry.start, entry.end, entry.renter, entry.price, left, right);
+		}
+
+		Node(long start, long end, int renter, double price, Node left, Node right) {
+			this.start = start;
+			this.end = end;
+			this.renter = renter;
+			this.price = price;
+			this.left = left;
+			this.right = right;
+			this.height = 1 + Math.max(height(left), height(right));
+			this.size = 1 + (left == null ? 0 : left.size) + (right == null ? 0 : right.size);
+			long maxEnd = end;
+			if (left != null && left.maxEnd > maxEnd)
+				maxEnd = left.maxEnd;
+			if (right != null && right.maxEnd > maxEnd)
+				maxEnd = right.maxEnd;
+			this.maxEnd = maxEnd;
+		}
+
+		boolean sameReservation(Node other) {
+			return start == other.start && end == other.end && renter == other.renter
+					&& Double.compare(price, other.price) == 0;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package company;
 
 import java.rmi.RemoteException;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
@@ -29,11 +30,20 @@ public interface ICarRentalCompany extends java.rmi.Remote {
 
 	CarType getCarType(String carTypeName) throws java.rmi.RemoteException;
 
+	// Never changes during the lifetime of the company.
+	CarTypeCatalogue getCarTypeCatalogue() throws java.rmi.RemoteException;
+
 	// mark
 	boolean isAvailable(String carTypeName, Date start, Date end) throws java.rmi.RemoteException;
 
 	Set<CarType> getAvailableCarTypes(Date start, Date end) throws java.rmi.RemoteException;
 
+	// The ids in the catalogue of this company of the available car types.
+	BitSet getAvailableCarTypeIds(Date start, Date end) throws java.rmi.RemoteException;
+
+	// Increases with every change to the reservations of this company.
+	long getVersion() throws java.rmi.RemoteException;
+
 	/****************
 	 * RESERVATIONS *
 	 ****************/
@@ -44,11 +54,40 @@ public interface ICarRentalCompany extends java.rmi.Remote {
 
 	void cancelReservation(Reservation res) throws java.rmi.RemoteException;
 
+	void releaseQuote(Quote quote) throws java.rmi.RemoteException;
+
+	List<Quote> createQuotes(List<ReservationConstraints> constraints, String client) throws ReservationException, java.rmi.RemoteException;
+
+	List<Reservation> confirmQuotes(List<Quote> quotes) throws ReservationException, java.rmi.RemoteException;
+
+	void cancelReservations(List<Reservation> reservations) throws java.rmi.RemoteException;
+
+	void prepareQuotes(String transactionId, List<Quote> quotes) throws ReservationException, java.rmi.RemoteException;
+
+	List<Reservation> commitQuotes(String transactionId) throws ReservationException, java.rmi.RemoteException;
+
+	void abortQuotes(String transactionId) throws java.rmi.RemoteException;
+
 	List<Reservation> getReservationByRenter(String clientName) throws java.rmi.RemoteException;
 
 	int getNumberOfReservationsForCarType(String carType) throws java.rmi.RemoteException;
 	
 	public Map<String, Integer> getNumResByRenter() throws RemoteException;
+
+	/**
+	 * Get the number of reservations of each of the given renters.
+	 */
+	public Map<String, Integer> getNumResByRenter(Collection<String> renters) throws RemoteException;
+
+	/**
+	 * Get the (at most) k renters with the most reservations, with their number of reservations.
+	 */
+	public Map<String, Integer> getTopRenters(int k) throws RemoteException;
+
+	/**
+	 * Get all renters with at least the given number of reservations, with their number of reservations.
+	 */
+	public Map<String, Integer> getRentersWithAtLeast(int nbReservations) throws RemoteException;
 	
 	public CarType getMostPopularCarType(Date start, Date end) throws RemoteException;
 	
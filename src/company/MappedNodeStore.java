@@ -0,0 +1,280 @@
+package company;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Fixed-size nodes of reservation indexes, stored in a memory-mapped file instead of on the heap.
+ * The same nodes also hold the lists of reservations per renter of a RenterIndex.
+ *
+ * The file is mapped in chunks and grows as needed. Freed nodes are reused, so the file only
+ * grows with the number of live reservations. The file is scratch space for the reservations
+ * of one run: it is emptied when opened.
+ *
+ * Indexes are immutable, so a node can only be freed once no index that may still be read
+ * refers to it. Every index of a car keeps a version in the chain of that car; the nodes that
+ * an update copied or removed are freed once the garbage collector found that the index it
+ * started from, and all indexes before that, are no longer used.
+ */
+class MappedNodeStore implements Closeable {
+
+	static final int NIL = -1;
+
+	// Layout of a node.
+	private static final int START = 0;
+	private static final int END = 8;
+	private static final int MAX_END = 16;
+	private static final int PRICE = 24;
+	private static final int RENTER = 32;
+	private static final int HEIGHT = 36;
+	private static final int SIZE = 40;
+	private static final int LEFT = 44;
+	private static final int RIGHT = 48;
+	private static final int NODE_BYTES = 56;
+
+	private static final int CHUNK_SHIFT = 16;
+	private static final int CHUNK_NODES = 1 << CHUNK_SHIFT;
+	private static final long CHUNK_BYTES = (long) CHUNK_NODES * NODE_BYTES;
+
+	private static final Cleaner cleaner = Cleaner.create();
+
+	private final FileChannel channel;
+	private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+	// Allocation state, guarded by this. Free nodes are linked through their left child.
+	private int nextNode;
+	private int freeHead = NIL;
+	private int nbFree;
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	private MappedNodeStore(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Open a store in the given file, discarding whatever it contained.
+	 */
+	public static MappedNodeStore open(Path file) throws IOException {
+		return new MappedNodeStore(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+	}
+
+	/**
+	 * Get a new empty index whose nodes are kept in this store.
+	 */
+	public ReservationIndex emptyIndex() {
+		return new MappedReservationIndex(this, new Chain(), NIL);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**************
+	 * ALLOCATION *
+	 **************/
+
+	public synchronized int allocate() {
+		if (freeHead != NIL) {
+			int node = freeHead;
+			freeHead = getLeft(node);
+			nbFree--;
+			return node;
+		}
+		if (nextNode == Integer.MAX_VALUE)
+			throw new IllegalStateException("Node store is full");
+		if ((nextNode >>> CHUNK_SHIFT) == chunks.length)
+			grow();
+		return nextNode++;
+	}
+
+	private void grow() {
+		try {
+			MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunks.length * CHUNK_BYTES, CHUNK_BYTES);
+			MappedByteBuffer[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+			grown[chunks.length] = chunk;
+			chunks = grown;
+		} catch (IOException exception) {
+			throw new UncheckedIOException("Could not grow node store", exception);
+		}
+	}
+
+	public synchronized void free(int node) {
+		buffer(node).putInt(offset(node) + LEFT, freeHead);
+		freeHead = node;
+		nbFree++;
+	}
+
+	public synchronized void free(int[] nodes, int count) {
+		for (int i = 0; i < count; i++) {
+			buffer(nodes[i]).putInt(offset(nodes[i]) + LEFT, freeHead);
+			freeHead = nodes[i];
+		}
+		nbFree += count;
+	}
+
+	/**
+	 * Get the number of nodes that are in use (or waiting to be freed).
+	 */
+	public synchronized int getNbUsedNodes() {
+		return nextNode - nbFree;
+	}
+
+	/*********
+	 * NODES *
+	 *********/
+
+	private MappedByteBuffer buffer(int node) {
+		return chunks[node >>> CHUNK_SHIFT];
+	}
+
+	private static int offset(int node) {
+		return (node & (CHUNK_NODES - 1)) * NODE_BYTES;
+	}
+
+	public void write(int node, long start, long end, int renter, double price, int left, int right) {
+		long maxEnd = end;
+		if (left != NIL && getMaxEnd(left) > maxEnd)
+			maxEnd = getMaxEnd(left);
+		if (right != NIL && getMaxEnd(right) > maxEnd)
+			maxEnd = getMaxEnd(right);
+
+		MappedByteBuffer buffer = buffer(node);
+		int offset = offset(node);
+		buffer.putLong(offset + START, start);
+		buffer.putLong(offset + END, end);
+		buffer.putLong(offset + MAX_END, maxEnd);
+		buffer.putDouble(offset + PRICE, price);
+		buffer.putInt(offset + RENTER, renter);
+		buffer.putInt(offset + HEIGHT, 1 + Math.max(getHeight(left), getHeight(right)));
+		buffer.putInt(offset + SIZE, 1 + getSize(left) + getSize(right));
+		buffer.putInt(offset + LEFT, left);
+		buffer.putInt(offset + RIGHT, right);
+	}
+
+	public long getStart(int node) {
+		return buffer(node).getLong(offset(node) + START);
+	}
+
+	public long getEnd(int node) {
+		return buffer(node).getLong(offset(node) + END);
+	}
+
+	public long getMaxEnd(int node) {
+		return buffer(node).getLong(offset(node) + MAX_END);
+	}
+
+	public double getPrice(int node) {
+		return buffer(node).getDouble(offset(node) + PRICE);
+	}
+
+	public int getRenter(int node) {
+		return buffer(node).getInt(offset(node) + RENTER);
+	}
+
+	public int getHeight(int node) {
+		return node == NIL ? 0 : buffer(node).getInt(offset(node) + HEIGHT);
+	}
+
+	public int getSize(int node) {
+		return node == NIL ? 0 : buffer(node).getInt(offset(node) + SIZE);
+	}
+
+	public int getLeft(int node) {
+		return buffer(node).getInt(offset(node) + LEFT);
+	}
+
+	public int getRight(int node) {
+		return buffer(node).getInt(offset(node) + RIGHT);
+	}
+
+	/***********
+	 * ENTRIES *
+	 ***********/
+
+	// A list entry keeps the car id where a tree node keeps the renter, and the next entry
+	// where a tree node keeps its right child.
+
+	public void writeEntry(int node, long start, long end, int carId, double price, int next) {
+		MappedByteBuffer buffer = buffer(node);
+		int offset = offset(node);
+		buffer.putLong(offset + START, start);
+		buffer.putLong(offset + END, end);
+		buffer.putDouble(offset + PRICE, price);
+		buffer.putInt(offset + RENTER, carId);
+		buffer.putInt(offset + RIGHT, next);
+	}
+
+	public int getCarId(int node) {
+		return getRenter(node);
+	}
+
+	public int getNext(int node) {
+		return getRight(node);
+	}
+
+	public void setNext(int node, int next) {
+		buffer(node).putInt(offset(node) + RIGHT, next);
+	}
+
+	/************
+	 * VERSIONS *
+	 ************/
+
+	/**
+	 * The versions of the index of one car, oldest first.
+	 */
+	class Chain {
+		private final Deque<Version> versions = new ArrayDeque<>();
+
+		/**
+		 * Add a version for the given (new) index, which is marked unused once the index is garbage.
+		 */
+		synchronized Version add(ReservationIndex index) {
+			Version version = new Version();
+			versions.addLast(version);
+			cleaner.register(index, () -> unused(version));
+			return version;
+		}
+
+		/**
+		 * Record the nodes that were left behind by the update of the index of the given version.
+		 */
+		synchronized void superseded(Version version, int[] retired, int nbRetired) {
+			version.retired = retired;
+			version.nbRetired = nbRetired;
+			freeUnused();
+		}
+
+		private synchronized void unused(Version version) {
+			version.unused = true;
+			freeUnused();
+		}
+
+		private void freeUnused() {
+			while (!versions.isEmpty() && versions.peekFirst().unused && versions.peekFirst().retired != null) {
+				Version oldest = versions.pollFirst();
+				free(oldest.retired, oldest.nbRetired);
+			}
+		}
+	}
+
+	static class Version {
+		// Nodes that are not in any later version, or null while this is the latest version.
+		int[] retired;
+		int nbRetired;
+		boolean unused;
+	}
+}
@@ -0,0 +1,264 @@
+package company;
+
+import java.lang.ref.Reference;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Reservation index whose nodes are kept in a memory-mapped file, so a company can hold very
+ * many reservations without a large heap. Only the root of each version is on the heap.
+ */
+class MappedReservationIndex extends ReservationIndex {
+
+	private static final int NIL = MappedNodeStore.NIL;
+
+	private final MappedNodeStore store;
+	private final MappedNodeStore.Chain chain;
+	private final MappedNodeStore.Version version;
+	private final int root;
+
+	MappedReservationIndex(MappedNodeStore store, MappedNodeStore.Chain chain, int root) {
+		this.store = store;
+		this.chain = chain;
+		this.root = root;
+		this.version = chain.add(this);
+	}
+
+	/***********
+	 * QUERIES *
+	 ***********/
+
+	@Override
+	public int size() {
+		try {
+			return store.getSize(root);
+		} finally {
+			Reference.reachabilityFence(this);
+		}
+	}
+
+	@Override
+	public boolean overlaps(Date start, Date end) {
+		long from = start.getTime();
+		long until = end.getTime();
+		// Once this index is unreachable its nodes may be freed and reused, so keep it reachable
+		// until the walk is done: the loop itself only uses the store and node numbers.
+		try {
+			int node = root;
+			while (node != NIL) {
+				if (store.getStart(node) <= until && store.getEnd(node) >= from)
+					return true;
+				// If the left subtree reaches far enough, any overlap must be in there.
+				int left = store.getLeft(node);
+				if (left != NIL && store.getMaxEnd(left) >= from)
+					node = left;
+				else
+					node = store.getRight(node);
+			}
+			return false;
+		} finally {
+			Reference.reachabilityFence(this);
+		}
+	}
+
+	@Override
+	public void forEach(Visitor visitor) {
+		try {
+			forEach(root, visitor);
+		} finally {
+			Reference.reachabilityFence(this);
+		}
+	}
+
+	private void forEach(int node, Visitor visitor) {
+		while (node != NIL) {
+			forEach(store.getLeft(node), visitor);
+			visitor.visit(store.getStart(node), store.getEnd(node), store.getRenter(node), store.getPrice(node));
+			node = store.getRight(node);
+		}
+	}
+
+	/***********
+	 * UPDATES *
+	 ***********/
+
+	@Override
+	public ReservationIndex insert(long start, long end, int renter, double price) {
+		Update update = new Update();
+		int leaf = update.allocate();
+		store.write(leaf, start, end, renter, price, NIL, NIL);
+		return update.finish(insert(update, root, leaf));
+	}
+
+	@Override
+	public ReservationIndex remove(long start, long end, int renter, double price) {
+		Update update = new Update();
+		int result = remove(update, root, start, end, renter, price);
+		return result == root ? this : update.finish(result);
+	}
+
+	@Override
+	public ReservationIndex build(long[] starts, long[] ends, int[] renters, double[] prices, int count) {
+		if (root != NIL)
+			throw new IllegalStateException("Can only build an empty index");
+		Update update = new Update();
+		return update.finish(build(starts, ends, renters, prices, 0, count));
+	}
+
+	private int build(long[] starts, long[] ends, int[] renters, double[] prices, int from, int until) {
+		if (from >= until)
+			return NIL;
+		int middle = (from + until) >>> 1;
+		int left = build(starts, ends, renters, prices, from, middle);
+		int right = build(starts, ends, renters, prices, middle + 1, until);
+		// Not tracked by the update: these nodes are never dropped.
+		int node = store.allocate();
+		store.write(node, starts[middle], ends[middle], renters[middle], prices[middle], left, right);
+		return node;
+	}
+
+	private int insert(Update update, int node, int entry) {
+		if (node == NIL)
+			return entry;
+		// Equal start dates go to the right, which keeps them adjacent in the in-order walk.
+		if (store.getStart(entry) < store.getStart(node))
+			return balance(update, node, insert(update, store.getLeft(node), entry), store.getRight(node));
+		return balance(update, node, store.getLeft(node), insert(update, store.getRight(node), entry));
+	}
+
+	/**
+	 * Remove the target from the given subtree. Returns the same node if the target is not in it.
+	 */
+	private int remove(Update update, int node, long start, long end, int renter, double price) {
+		if (node == NIL)
+			return NIL;
+		int left = store.getLeft(node);
+		int right = store.getRight(node);
+		if (start < store.getStart(node)) {
+			int newLeft = remove(update, left, start, end, renter, price);
+			return newLeft == left ? node : balance(update, node, newLeft, right);
+		}
+		if (start > store.getStart(node)) {
+			int newRight = remove(update, right, start, end, renter, price);
+			return newRight == right ? node : balance(update, node, left, newRight);
+		}
+		if (store.getEnd(node) == end && store.getRenter(node) == renter
+				&& Double.compare(store.getPrice(node), price) == 0) {
+			update.drop(node);
+			if (left == NIL)
+				return right;
+			if (right == NIL)
+				return left;
+			int successor = right;
+			while (store.getLeft(successor) != NIL)
+				successor = store.getLeft(successor);
+			return balance(update, successor, left, removeMin(update, right));
+		}
+		// Another reservation with the same start date: the target may sit in either subtree.
+		int newLeft = remove(update, left, start, end, renter, price);
+		if (newLeft != left)
+			return balance(update, node, newLeft, right);
+		int newRight = remove(update, right, start, end, renter, price);
+		return newRight == right ? node : balance(update, node, left, newRight);
+	}
+
+	private int removeMin(Update update, int node) {
+		int left = store.getLeft(node);
+		if (left == NIL) {
+			update.drop(node);
+			return store.getRight(node);
+		}
+		return balance(update, node, removeMin(update, left), store.getRight(node));
+	}
+
+	/*************
+	 * BALANCING *
+	 *************/
+
+	private int balance(Update update, int entry, int left, int right) {
+		int skew = store.getHeight(left) - store.getHeight(right);
+		if (skew > 1) {
+			if (store.getHeight(store.getLeft(left)) < store.getHeight(store.getRight(left)))
+				left = rotateLeft(update, left, store.getLeft(left), store.getRight(left));
+			return rotateRight(update, entry, left, right);
+		}
+		if (skew < -1) {
+			if (store.getHeight(store.getRight(right)) < store.getHeight(store.getLeft(right)))
+				right = rotateRight(update, right, store.getLeft(right), store.getRight(right));
+			return rotateLeft(update, entry, left, right);
+		}
+		return copy(update, entry, left, right);
+	}
+
+	private int rotateRight(Update update, int entry, int left, int right) {
+		return copy(update, left, store.getLeft(left), copy(update, entry, store.getRight(left), right));
+	}
+
+	private int rotateLeft(Update update, int entry, int left, int right) {
+		return copy(update, right, copy(update, entry, left, store.getLeft(right)), store.getRight(right));
+	}
+
+	/**
+	 * Create a node with the reservation of the given entry and the given children. The entry
+	 * itself is no longer part of the new version.
+	 */
+	private int copy(Update update, int entry, int left, int right) {
+		int node = update.allocate();
+		store.write(node, store.getStart(entry), store.getEnd(entry), store.getRenter(entry), store.getPrice(entry), left, right);
+		update.drop(entry);
+		return node;
+	}
+
+	/**
+	 * The nodes allocated and dropped while building the next version of this index.
+	 */
+	private class Update {
+		private int[] allocated = new int[16];
+		private int nbAllocated;
+		private int[] retired = new int[16];
+		private int nbRetired;
+		private int[] garbage = new int[16];
+		private int nbGarbage;
+
+		int allocate() {
+			int node = store.allocate();
+			if (nbAllocated == allocated.length)
+				allocated = Arrays.copyOf(allocated, 2 * nbAllocated);
+			allocated[nbAllocated++] = node;
+			return node;
+		}
+
+		/**
+		 * Leave the given node out of the next version. A node of this version must stay until
+		 * no one reads this version anymore; a node allocated during the update can go right away.
+		 */
+		void drop(int node) {
+			if (contains(allocated, nbAllocated, node)) {
+				if (!contains(garbage, nbGarbage, node)) {
+					if (nbGarbage == garbage.length)
+						garbage = Arrays.copyOf(garbage, 2 * nbGarbage);
+					garbage[nbGarbage++] = node;
+				}
+			} else if (!contains(retired, nbRetired, node)) {
+				if (nbRetired == retired.length)
+					retired = Arrays.copyOf(retired, 2 * nbRetired);
+				retired[nbRetired++] = node;
+			}
+		}
+
+		private boolean contains(int[] nodes, int count, int node) {
+			for (int i = 0; i < count; i++) {
+				if (nodes[i] == node)
+					return true;
+			}
+			return false;
+		}
+
+		ReservationIndex finish(int newRoot) {
+			MappedReservationIndex next = new MappedReservationIndex(store, chain, newRoot);
+			store.free(garbage, nbGarbage);
+			chain.superseded(version, retired, nbRetired);
+			return next;
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package company;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+/**
+ * The confirmed reservations of a company per renter, kept up to date with every confirmation
+ * and cancellation, so the reservations of a renter are found in time proportional to their
+ * number instead of by looking at all cars.
+ *
+ * The reservations of a renter can be of several car types, and so be changed by threads that
+ * hold different locks: every renter has its own entries, which are changed one at a time.
+ *
+ * The entries are kept on the heap, or in the off-heap store of the reservation indexes, where
+ * every renter has a linked list of them. Then only a few fields per renter are on the heap.
+ */
+class RenterIndex {
+
+	private static final int NIL = MappedNodeStore.NIL;
+
+	private final String company;
+	private final Symbols renters;
+	// Where the entries are kept off the heap, or null to keep them on the heap.
+	private final MappedNodeStore store;
+	// The name of the car type of a car id, for entries kept off the heap.
+	private final IntFunction<String> carTypeOf;
+	// Keyed on renter symbol. A renter whose reservations were all cancelled keeps empty entries.
+	private final Map<Integer, Entries> byRenter = new ConcurrentHashMap<>();
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	/**
+	 * Create an index that keeps its entries in the given store, or on the heap if it is null.
+	 *
+	 * @param carTypeOf gives the name of the car type of a car id
+	 */
+	RenterIndex(String company, Symbols renters, MappedNodeStore store, IntFunction<String> carTypeOf) {
+		this.company = company;
+		this.renters = renters;
+		this.store = store;
+		this.carTypeOf = carTypeOf;
+	}
+
+	private Entries newEntries(int capacity) {
+		return store == null ? new HeapEntries(capacity) : new MappedEntries();
+	}
+
+	/***********
+	 * UPDATES *
+	 ***********/
+
+	public void confirmed(Reservation res) {
+		add(renters.intern(res.getCarRenter()), res.getCarType(), res.getCarId(), res.getStartDate().getTime(),
+				res.getEndDate().getTime(), res.getRentalPrice());
+	}
+
+	public void cancelled(Reservation res) {
+		int renter = renters.find(res.getCarRenter());
+		Entries entries = renter < 0 ? null : byRenter.get(renter);
+		if (entries != null)
+			entries.remove(res.getCarId(), res.getStartDate().getTime(), res.getEndDate().getTime(), res.getRentalPrice());
+	}
+
+	private void add(int renter, String carType, int carId, long start, long end, double price) {
+		byRenter.computeIfAbsent(renter, symbol -> newEntries(4)).add(carType, carId, start, end, price);
+	}
+
+	/**
+	 * Replace all reservations by those in the given snapshots (per car type). Nothing else
+	 * may be changed at the same time.
+	 */
+	public void rebuild(Map<String, FleetSnapshot> fleets) {
+		for (Entries entries : byRenter.values())
+			entries.clear();
+		byRenter.clear();
+		// Size the entries of every renter first, so they never have to grow.
+		int[] nbByRenter = new int[renters.size()];
+		for (FleetSnapshot fleet : fleets.values())
+			fleet.forEachReservation((car, start, end, renter, price) -> nbByRenter[renter]++);
+		Entries[] entries = new Entries[nbByRenter.length];
+		for (int renter = 0; renter < nbByRenter.length; renter++) {
+			if (nbByRenter[renter] > 0)
+				entries[renter] = newEntries(nbByRenter[renter]);
+		}
+		for (FleetSnapshot fleet : fleets.values()) {
+			fleet.forEachReservation((car, start, end, renter, price) ->
+				entries[renter].add(car.getType().getName(), car.getId(), start, end, price));
+		}
+		for (int renter = 0; renter < entries.length; renter++) {
+			if (entries[renter] != null)
+				byRenter.put(renter, entries[renter]);
+		}
+	}
+
+	/***********
+	 * QUERIES *
+	 ***********/
+
+	/**
+	 * Get the reservations of the given renter.
+	 */
+	public List<Reservation> getReservations(String renterName) {
+		int renter = renters.find(renterName);
+		Entries entries = renter < 0 ? null : byRenter.get(renter);
+		return entries == null ? new ArrayList<>() : entries.toReservations(renterName);
+	}
+
+	/**
+	 * The reservations of one renter.
+	 */
+	private abstract class Entries {
+		abstract void add(String carType, int carId, long start, long end, double price);
+
+		abstract void remove(int carId, long start, long end, double price);
+
+		abstract List<Reservation> toReservations(String renterName);
+
+		/**
+		 * Give back the space of the entries, which are not used anymore.
+		 */
+		void clear() {
+		}
+	}
+
+	/**
+	 * The reservations of one renter, as parallel arrays of their fields.
+	 */
+	private class HeapEntries extends Entries {
+		private String[] carTypes;
+		private int[] carIds;
+		private long[] starts;
+		private long[] ends;
+		private double[] prices;
+		private int size;
+
+		HeapEntries(int capacity) {
+			carTypes = new String[capacity];
+			carIds = new int[capacity];
+			starts = new long[capacity];
+			ends = new long[capacity];
+			prices = new double[capacity];
+		}
+
+		@Override
+		synchronized void add(String carType, int carId, long start, long end, double price) {
+			if (size == carIds.length) {
+				carTypes = Arrays.copyOf(carTypes, 2 * size);
+				carIds = Arrays.copyOf(carIds, 2 * size);
+				starts = Arrays.copyOf(starts, 2 * size);
+				ends = Arrays.copyOf(ends, 2 * size);
+				prices = Arrays.copyOf(prices, 2 * size);
+			}
+			carTypes[size] = carType;
+			carIds[size] = carId;
+			starts[size] = start;
+			ends[size] = end;
+			prices[size] = price;
+			size++;
+		}
+
+		@Override
+		synchronized void remove(int carId, long start, long end, double price) {
+			for (int i = 0; i < size; i++) {
+				if (carIds[i] == carId && starts[i] == start && ends[i] == end && Double.compare(prices[i], price) == 0) {
+					// Shift the later entries, to keep the order in which they were made.
+					int nbLater = size - i - 1;
+					System.arraycopy(carTypes, i + 1, carTypes, i, nbLater);
+					System.arraycopy(carIds, i + 1, carIds, i, nbLater);
+					System.arraycopy(starts, i + 1, starts, i, nbLater);
+					System.arraycopy(ends, i + 1, ends, i, nbLater);
+					System.arraycopy(prices, i + 1, prices, i, nbLater);
+					size--;
+					carTypes[size] = null;
+					return;
+				}
+			}
+		}
+
+		@Override
+		synchronized List<Reservation> toReservations(String renterName) {
+			List<Reservation> out = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				out.add(new Reservation(renterName, new Date(starts[i]), new Date(ends[i]), company, carTypes[i], prices[i],
+						carIds[i]));
+			}
+			return out;
+		}
+	}
+
+	/**
+	 * The reservations of one renter, as a linked list of entries in the store, oldest first.
+	 * The car type is not kept, but looked up by car id.
+	 */
+	private class MappedEntries extends Entries {
+		private int head = NIL;
+		private int tail = NIL;
+		private int size;
+
+		@Override
+		synchronized void add(String carType, int carId, long start, long end, double price) {
+			int node = store.allocate();
+			store.writeEntry(node, start, end, carId, price, NIL);
+			if (tail == NIL)
+				head = node;
+			else
+				store.setNext(tail, node);
+			tail = node;
+			size++;
+		}
+
+		@Override
+		synchronized void remove(int carId, long start, long end, double price) {
+			int previous = NIL;
+			for (int node = head; node != NIL; previous = node, node = store.getNext(node)) {
+				if (store.getCarId(node) == carId && store.getStart(node) == start && store.getEnd(node) == end
+						&& Double.compare(store.getPrice(node), price) == 0) {
+					int next = store.getNext(node);
+					if (previous == NIL)
+						head = next;
+					else
+						store.setNext(previous, next);
+					if (tail == node)
+						tail = previous;
+					size--;
+					// Only read while holding the lock of these entries, so it can go right away.
+					store.free(node);
+					return;
+				}
+			}
+		}
+
+		@Override
+		synchronized List<Reservation> toReservations(String renterName) {
+			List<Reservation> out = new ArrayList<>(size);
+			for (int node = head; node != NIL; node = store.getNext(node)) {
+				int carId = store.getCarId(node);
+				out.add(new Reservation(renterName, new Date(store.getStart(node)), new Date(store.getEnd(node)), company,
+						carTypeOf.apply(carId), store.getPrice(node), carId));
+			}
+			return out;
+		}
+
+		@Override
+		synchronized void clear() {
+			for (int node = head; node != NIL;) {
+				int next = store.getNext(node);
+				store.free(node);
+				node = next;
+			}
+			head = NIL;
+			tail = NIL;
+			size = 0;
+		}
+	}
+}
@@ -1,5 +1,10 @@
 package company;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Date;
+
 import rental.Quote;
 
 public class Reservation extends Quote {
@@ -19,6 +24,17 @@ public class Reservation extends Quote {
     			quote.getRentalCompany(), quote.getCarType(), quote.getRentalPrice());
         this.carId = carId;
     }
+
+    Reservation(String carRenter, Date start, Date end, String rentalCompany, String carType, double rentalPrice, int carId) {
+    	super(carRenter, start, end, rentalCompany, carType, rentalPrice);
+        this.carId = carId;
+    }
+
+    /**
+     * Only for deserialization.
+     */
+    public Reservation() {
+    }
     
     /******
      * ID *
@@ -28,6 +44,22 @@ public class Reservation extends Quote {
     	return carId;
     }
     
+    /*****************
+     * SERIALIZATION *
+     *****************/
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        super.writeExternal(out);
+        WireFormat.writeVarInt(out, carId);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        super.readExternal(in);
+        carId = WireFormat.readVarInt(in);
+    }
+
     /*************
      * TO STRING *
      *************/
@@ -1,9 +1,12 @@
 package company;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.Date;
 
-public class ReservationConstraints implements Serializable {
+public class ReservationConstraints implements Externalizable {
     
     /**
 	 * 
@@ -20,6 +23,12 @@ public class ReservationConstraints implements Serializable {
     	setCarType(carType);
     	setRegion(region);
     }
+
+    /**
+     * Only for deserialization.
+     */
+    public ReservationConstraints() {
+    }
     
     public Date getStartDate() {
 		return startDate;
@@ -53,6 +62,22 @@ public class ReservationConstraints implements Serializable {
 		return this.region;
 	}
 	
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		WireFormat.writeDate(out, startDate);
+		WireFormat.writeDate(out, endDate);
+		WireFormat.writeString(out, carType);
+		WireFormat.writeString(out, region);
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException {
+		startDate = WireFormat.readDate(in);
+		endDate = WireFormat.readDate(in);
+		carType = WireFormat.readString(in);
+		region = WireFormat.readString(in);
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -0,0 +1,63 @@
+package company;
+
+import java.util.Date;
+
+/**
+ * Balanced (AVL) interval tree over the reservations of a single car.
+ *
+ * Nodes are ordered on the start date of their reservation and every node keeps the
+ * latest end date of its subtree, so inserting, removing and looking for an overlapping
+ * reservation all take O(log n).
+ *
+ * The index is immutable: an update copies the O(log n) nodes on its path and returns a
+ * new index that shares all other nodes with the old one. Older versions therefore stay
+ * valid and can be read without any locking while new versions are being built.
+ *
+ * The nodes are either kept on the heap or in a memory-mapped file, see the subclasses.
+ */
+abstract class ReservationIndex {
+
+	/**
+	 * Receives the fields of the reservations in an index.
+	 */
+	interface Visitor {
+		void visit(long start, long end, int renter, double price);
+	}
+
+	/***********
+	 * QUERIES *
+	 ***********/
+
+	public abstract int size();
+
+	/**
+	 * Check whether a reservation in this index overlaps with the given period (bounds inclusive).
+	 */
+	public abstract boolean overlaps(Date start, Date end);
+
+	/**
+	 * Visit all reservations of this index, ordered on their start date.
+	 */
+	public abstract void forEach(Visitor visitor);
+
+	/***********
+	 * UPDATES *
+	 ***********/
+
+	/**
+	 * Get a new index that also contains the given reservation.
+	 */
+	public abstract ReservationIndex insert(long start, long end, int renter, double price);
+
+	/**
+	 * Get a new index without a reservation with the given fields, or this index if it does
+	 * not contain such a reservation.
+	 */
+	public abstract ReservationIndex remove(long start, long end, int renter, double price);
+
+	/**
+	 * Get a new index with the given reservations, which are sorted on their start date, in O(n).
+	 * Only allowed on an empty index.
+	 */
+	public abstract ReservationIndex build(long[] starts, long[] ends, int[] renters, double[] prices, int count);
+}
@@ -0,0 +1,362 @@
+package company;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log of the confirmed and cancelled reservations of a company.
+ *
+ * Appending a record only buffers it; {@link #sync()} makes everything appended so far
+ * durable. Threads that sync while another thread is forcing the file to disk wait for it,
+ * and then force all their records together: concurrent bookings share one fsync.
+ *
+ * Every record carries its length and checksum, so a record that was only partly written
+ * when the process stopped is recognized (and cut off) when the log is replayed.
+ *
+ * If writing or forcing the file fails, the log stops: the records that were not written
+ * are kept, but nothing is written anymore and every later sync fails, so no record can end
+ * up on disk after a gap.
+ *
+ * The log is split in numbered segments (files named name.N.log). After a snapshot of the
+ * state was taken, the segments it covers can be deleted.
+ */
+class ReservationLog implements Closeable {
+
+	private static Logger logger = Logger.getLogger(ReservationLog.class.getName());
+
+	private static final byte CONFIRMED = 1;
+	private static final byte CANCELLED = 2;
+	// Records are far smaller: a larger length can only come from a corrupt header.
+	private static final int MAX_RECORD_SIZE = 1 << 20;
+
+	private final Path directory;
+	private final String name;
+	// The segment that is written to, and its file. Only changed while holding flushLock and this.
+	private long segment;
+	private FileChannel channel;
+	// Records that were appended, but not yet written. Guarded by this.
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	// Set by rotate: the number of pending bytes that still go to the current segment, or -1. Guarded by this.
+	private int rotateAt = -1;
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+	private final DataOutputStream recordOut = new DataOutputStream(record);
+	private long nbAppended;
+	// Only one thread writes and forces the file at a time. Guarded by flushLock.
+	private final Object flushLock = new Object();
+	private volatile long nbDurable;
+	// The failure that stopped the log, if any. Only set while holding flushLock.
+	private volatile IOException failure;
+
+	/**
+	 * Receives the records of the log when it is replayed.
+	 */
+	interface Handler {
+		void apply(boolean confirmed, int carId, String renter, Date start, Date end, double price);
+	}
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	private ReservationLog(Path directory, String name) {
+		this.directory = directory;
+		this.name = name;
+	}
+
+	/**
+	 * Open the log with the given name in the given directory. Nothing can be appended before
+	 * the log was replayed.
+	 */
+	public static ReservationLog open(Path directory, String name) {
+		return new ReservationLog(directory, name);
+	}
+
+	@Override
+	public void close() throws IOException {
+		sync();
+		synchronized (flushLock) {
+			channel.close();
+		}
+	}
+
+	/**********
+	 * REPLAY *
+	 **********/
+
+	/**
+	 * Pass all complete records in the segments after the given one to the given handler, in
+	 * the order they were appended, and cut off an incomplete or corrupt record and everything
+	 * after it. New records are appended after the last replayed one.
+	 *
+	 * A segment that had to be cut is not followed by the later segments: those are renamed
+	 * (to name.N.log.discarded) instead of replayed over the gap.
+	 *
+	 * @return the number of replayed records
+	 */
+	public long replay(long afterSegment, Handler handler) throws IOException {
+		TreeMap<Long, Path> segments = listSegments();
+		long nbRecords = 0;
+		for (Map.Entry<Long, Path> entry : segments.tailMap(afterSegment, false).entrySet()) {
+			boolean cut;
+			try (FileChannel file = openSegment(entry.getValue())) {
+				long size = file.size();
+				nbRecords += replay(file, handler);
+				cut = file.size() < size;
+			}
+			if (cut) {
+				discardAfter(segments, entry.getKey());
+				break;
+			}
+		}
+		synchronized (flushLock) {
+			segment = segments.isEmpty() ? afterSegment + 1 : Math.max(afterSegment + 1, segments.lastKey());
+			channel = openSegment(getSegmentFile(segment));
+			channel.position(channel.size());
+		}
+		logger.log(Level.INFO, "Replayed {0} records from the reservation log {1}", new Object[] { nbRecords, name });
+		return nbRecords;
+	}
+
+	private long replay(FileChannel file, Handler handler) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(file)));
+		long valid = 0;
+		long nbRecords = 0;
+		try {
+			while (true) {
+				int length = in.readInt();
+				long checksum = in.readInt() & 0xFFFFFFFFL;
+				if (length <= 0 || length > MAX_RECORD_SIZE || length > file.size() - valid - 8) {
+					logger.log(Level.WARNING, "Corrupt record length {0} in reservation log at byte {1}, ignoring the rest",
+							new Object[] { length, valid });
+					break;
+				}
+				byte[] payload = new byte[length];
+				in.readFully(payload);
+				if (checksum(payload) != checksum) {
+					logger.log(Level.WARNING, "Corrupt record in reservation log at byte {0}, ignoring the rest", valid);
+					break;
+				}
+				apply(payload, handler);
+				valid += 8 + length;
+				nbRecords++;
+			}
+		} catch (EOFException exception) {
+			// End of the log, or a record that was cut off.
+		}
+		if (valid < file.size()) {
+			logger.log(Level.WARNING, "Cutting off {0} bytes of incomplete records from the reservation log",
+					file.size() - valid);
+			file.truncate(valid);
+		}
+		return nbRecords;
+	}
+
+	/**
+	 * Rename the segments after the given one, and forget them.
+	 */
+	private void discardAfter(TreeMap<Long, Path> segments, long lastSegment) throws IOException {
+		Map<Long, Path> later = segments.tailMap(lastSegment, false);
+		for (Path file : later.values()) {
+			logger.log(Level.WARNING, "Discarding reservation log segment {0} after a corrupt one", file);
+			Files.move(file, file.resolveSibling(file.getFileName() + ".discarded"), StandardCopyOption.REPLACE_EXISTING);
+		}
+		later.clear();
+	}
+
+	private static void apply(byte[] payload, Handler handler) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		byte kind = in.readByte();
+		int carId = WireFormat.readVarInt(in);
+		String renter = WireFormat.readString(in);
+		Date start = WireFormat.readDate(in);
+		Date end = WireFormat.readDate(in);
+		double price = in.readDouble();
+		handler.apply(kind == CONFIRMED, carId, renter, start, end, price);
+	}
+
+	private static long checksum(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		return crc.getValue();
+	}
+
+	/*************
+	 * APPENDING *
+	 *************/
+
+	public void appendConfirmed(Reservation res) {
+		append(CONFIRMED, res);
+	}
+
+	public void appendCancelled(Reservation res) {
+		append(CANCELLED, res);
+	}
+
+	private synchronized void append(byte kind, Reservation res) {
+		// A stopped log never writes again, so there is no use in keeping more records.
+		if (failure != null)
+			return;
+		try {
+			record.reset();
+			recordOut.writeByte(kind);
+			WireFormat.writeVarInt(recordOut, res.getCarId());
+			WireFormat.writeString(recordOut, res.getCarRenter());
+			WireFormat.writeDate(recordOut, res.getStartDate());
+			WireFormat.writeDate(recordOut, res.getEndDate());
+			recordOut.writeDouble(res.getRentalPrice());
+
+			DataOutputStream out = new DataOutputStream(pending);
+			out.writeInt(record.size());
+			out.writeInt((int) checksum(record.toByteArray()));
+			record.writeTo(out);
+		} catch (IOException exception) {
+			// Cannot happen when writing to memory.
+			throw new IllegalStateException(exception);
+		}
+		nbAppended++;
+	}
+
+	/************
+	 * SEGMENTS *
+	 ************/
+
+	/**
+	 * Let the records appended after this call go to a new segment. Nothing is written here:
+	 * the next sync writes and forces the rest of the current segment before it starts the new
+	 * one, so a record of the new segment is never durable before those of the old one. The
+	 * log must be synced before it is rotated again.
+	 *
+	 * @return the last segment with records appended before this call
+	 */
+	public synchronized long rotate() {
+		if (rotateAt >= 0)
+			throw new IllegalStateException("The reservation log " + name + " was not synced since it was rotated");
+		rotateAt = pending.size();
+		return segment;
+	}
+
+	/**
+	 * Delete the given segment and all earlier ones.
+	 */
+	public void deleteUpTo(long lastSegment) throws IOException {
+		for (Path file : listSegments().headMap(lastSegment, true).values())
+			Files.deleteIfExists(file);
+	}
+
+	private TreeMap<Long, Path> listSegments() throws IOException {
+		TreeMap<Long, Path> segments = new TreeMap<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, name + ".*.log")) {
+			for (Path file : files) {
+				String fileName = file.getFileName().toString();
+				String number = fileName.substring(name.length() + 1, fileName.length() - ".log".length());
+				try {
+					segments.put(Long.parseLong(number), file);
+				} catch (NumberFormatException exception) {
+					// Not a segment of this log.
+				}
+			}
+		}
+		return segments;
+	}
+
+	private Path getSegmentFile(long segment) {
+		return directory.resolve(name + "." + segment + ".log");
+	}
+
+	private static FileChannel openSegment(Path file) throws IOException {
+		return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Wait until all records appended before this call are on disk.
+	 *
+	 * @throws IOException if they could not be written, now or by an earlier sync
+	 */
+	public void sync() throws IOException {
+		long target;
+		synchronized (this) {
+			target = nbAppended;
+		}
+		synchronized (flushLock) {
+			boolean rotating;
+			synchronized (this) {
+				rotating = rotateAt >= 0;
+			}
+			// Another thread may have forced our records along with its own while we waited.
+			if (nbDurable >= target && !rotating)
+				return;
+			if (failure != null)
+				throw new IOException("The reservation log " + name + " stopped after an earlier failure", failure);
+			byte[] batch;
+			long last;
+			int boundary;
+			synchronized (this) {
+				batch = pending.toByteArray();
+				pending.reset();
+				last = nbAppended;
+				boundary = rotateAt;
+				rotateAt = -1;
+			}
+			// Bytes of the batch that went to the previous segment, once it is finished.
+			int written = 0;
+			boolean switched = false;
+			try {
+				if (boundary >= 0) {
+					// Finish the current segment first.
+					write(batch, 0, boundary);
+					channel.force(false);
+					FileChannel next = openSegment(getSegmentFile(segment + 1));
+					channel.close();
+					synchronized (this) {
+						channel = next;
+						segment++;
+					}
+					written = boundary;
+					switched = true;
+				}
+				write(batch, written, batch.length - written);
+				channel.force(false);
+			} catch (IOException exception) {
+				// Put the batch back in front of the records appended since, and stop.
+				synchronized (this) {
+					byte[] later = pending.toByteArray();
+					pending.reset();
+					pending.write(batch, written, batch.length - written);
+					pending.write(later, 0, later.length);
+					if (boundary >= 0 && !switched)
+						rotateAt = boundary;
+				}
+				failure = exception;
+				logger.log(Level.SEVERE, "Could not write the reservation log " + name + ", stopping it", exception);
+				throw exception;
+			}
+			nbDurable = last;
+		}
+	}
+
+	private void write(byte[] bytes, int offset, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+}
@@ -0,0 +1,175 @@
+package company;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of the confirmed reservations of a company per car type (also per start day) and
+ * per renter, kept up to date with every confirmation and cancellation, so managers can read
+ * them without scanning any reservations.
+ *
+ * Every change is counted while holding the lock of the car type of the reservation, so the
+ * count of a type always matches its cars once that lock is released. The counters of a
+ * renter are shared by all types and can be read at any time.
+ */
+class ReservationStatistics {
+
+	private final Symbols renters;
+	private final Map<String, LongAdder> byType = new ConcurrentHashMap<>();
+	private final Map<String, StartHistogram> startsByType = new ConcurrentHashMap<>();
+	// Keyed on renter symbol. A renter whose reservations were all cancelled keeps a zero count.
+	private final Map<Integer, LongAdder> byRenter = new ConcurrentHashMap<>();
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	ReservationStatistics(Symbols renters) {
+		this.renters = renters;
+	}
+
+	/************
+	 * COUNTING *
+	 ************/
+
+	public void confirmed(Reservation res) {
+		count(res.getCarType(), renters.intern(res.getCarRenter()), res.getStartDate(), 1);
+	}
+
+	public void cancelled(Reservation res) {
+		count(res.getCarType(), renters.intern(res.getCarRenter()), res.getStartDate(), -1);
+	}
+
+	/**
+	 * Add the given number of reservations of the given car type and renter (a symbol) that
+	 * start at the given date.
+	 */
+	public void count(String carType, int renter, Date start, int delta) {
+		byType.computeIfAbsent(carType, type -> new LongAdder()).add(delta);
+		startsByType.computeIfAbsent(carType, type -> new StartHistogram()).add(start, delta);
+		byRenter.computeIfAbsent(renter, symbol -> new LongAdder()).add(delta);
+	}
+
+	/**
+	 * Replace all counts by those of the reservations in the given snapshots (per car type).
+	 * Nothing else may be counted at the same time.
+	 */
+	public void recount(Map<String, FleetSnapshot> fleets) {
+		byType.clear();
+		startsByType.clear();
+		byRenter.clear();
+		long[] nbByRenter = new long[renters.size()];
+		for (Map.Entry<String, FleetSnapshot> fleet : fleets.entrySet()) {
+			StartHistogram starts = new StartHistogram();
+			LongAdder nbReservations = new LongAdder();
+			fleet.getValue().forEachReservation((car, start, end, renter, price) -> {
+				nbByRenter[renter]++;
+				starts.add(new Date(start), 1);
+				nbReservations.increment();
+			});
+			byType.put(fleet.getKey(), nbReservations);
+			startsByType.put(fleet.getKey(), starts);
+		}
+		for (int renter = 0; renter < nbByRenter.length; renter++) {
+			if (nbByRenter[renter] > 0)
+				byRenter.computeIfAbsent(renter, symbol -> new LongAdder()).add(nbByRenter[renter]);
+		}
+	}
+
+	/***********
+	 * QUERIES *
+	 ***********/
+
+	/**
+	 * Get the number of reservations of the given car type, which is 0 for an unknown type.
+	 */
+	public int getNumberOfReservations(String carType) {
+		LongAdder count = byType.get(carType);
+		return count == null ? 0 : count.intValue();
+	}
+
+	/**
+	 * Get the number of reservations of the given car type that start strictly between the
+	 * given dates.
+	 */
+	public long getNumberOfReservationsStarting(String carType, Date start, Date end) {
+		StartHistogram starts = startsByType.get(carType);
+		return starts == null ? 0 : starts.count(start, end);
+	}
+
+	/**
+	 * Get the number of reservations of the given renter (a symbol).
+	 */
+	public int getNumberOfReservations(int renter) {
+		LongAdder count = byRenter.get(renter);
+		return count == null ? 0 : count.intValue();
+	}
+
+	/**
+	 * Get the number of reservations per renter, for all renters that have any.
+	 */
+	public Map<String, Integer> getNumberOfReservationsByRenter() {
+		Map<String, Integer> out = new HashMap<>(2 * byRenter.size());
+		for (Map.Entry<Integer, LongAdder> entry : byRenter.entrySet()) {
+			int count = entry.getValue().intValue();
+			if (count > 0)
+				out.put(renters.get(entry.getKey()), count);
+		}
+		return out;
+	}
+
+	/**
+	 * Get the (at most) k renters with the most reservations, with their number of reservations.
+	 */
+	public Map<String, Integer> getTopRenters(int k) {
+		// The k largest counts seen so far, smallest first: {count, renter}.
+		PriorityQueue<int[]> top = new PriorityQueue<>((entry1, entry2) -> Integer.compare(entry1[0], entry2[0]));
+		for (Map.Entry<Integer, LongAdder> entry : byRenter.entrySet()) {
+			int count = entry.getValue().intValue();
+			if (count <= 0 || k <= 0)
+				continue;
+			if (top.size() < k)
+				top.add(new int[] { count, entry.getKey() });
+			else if (count > top.peek()[0]) {
+				top.poll();
+				top.add(new int[] { count, entry.getKey() });
+			}
+		}
+		Map<String, Integer> out = new HashMap<>(2 * top.size());
+		for (int[] entry : top)
+			out.put(renters.get(entry[1]), entry[0]);
+		return out;
+	}
+
+	/**
+	 * Get all renters with at least the given number (at least 1) of reservations, with their
+	 * number of reservations.
+	 */
+	public Map<String, Integer> getRentersWithAtLeast(int nbReservations) {
+		int minimum = Math.max(1, nbReservations);
+		Map<String, Integer> out = new HashMap<>();
+		for (Map.Entry<Integer, LongAdder> entry : byRenter.entrySet()) {
+			int count = entry.getValue().intValue();
+			if (count >= minimum)
+				out.put(renters.get(entry.getKey()), count);
+		}
+		return out;
+	}
+
+	/**
+	 * Get the number of reservations of each of the given renters.
+	 */
+	public Map<String, Integer> getNumberOfReservations(Collection<String> renterNames) {
+		Map<String, Integer> out = new HashMap<>(2 * renterNames.size());
+		for (String name : renterNames) {
+			int renter = renters.find(name);
+			out.put(name, renter < 0 ? 0 : getNumberOfReservations(renter));
+		}
+		return out;
+	}
+}
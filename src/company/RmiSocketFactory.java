@@ -0,0 +1,399 @@
+package company;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Socket factories for exported remote objects, with tunable socket options, buffering and
+ * compression of large messages.
+ *
+ * The client factory travels with the stubs, so clients open their connections with the same
+ * settings as the server that exported the object.
+ *
+ * With compression, both directions of a connection are sent in frames of at most the buffer
+ * size. A frame is cut at every flush (RMI flushes after every call and every answer) or when
+ * the buffer is full. Frames of at least the compression threshold are compressed with
+ * Deflater (LZ77 with Huffman coding) at its fastest level, unless that does not make them
+ * smaller. A frame starts with an int with its length, whose highest bit tells whether it is
+ * compressed; a compressed frame then has an int with its uncompressed length.
+ */
+public class RmiSocketFactory implements RMIClientSocketFactory, RMIServerSocketFactory, Serializable {
+
+	private static final long serialVersionUID = -3914820565532387431L;
+
+	// System property with the size of the socket send and receive buffers in bytes (0 keeps those of the system).
+	public static final String SOCKET_BUFFER_PROPERTY = "crc.rmi.socketbuffer";
+	// System property with the size of the stream buffers in bytes (0 for no buffers, unless compressing).
+	public static final String BUFFER_PROPERTY = "crc.rmi.buffer";
+	// System property that turns TCP_NODELAY on or off.
+	public static final String NO_DELAY_PROPERTY = "crc.rmi.nodelay";
+	// System property with the size in bytes from which messages are compressed (-1 for no compression).
+	public static final String COMPRESSION_THRESHOLD_PROPERTY = "crc.rmi.compress";
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	public static final int DEFAULT_COMPRESSION_THRESHOLD = -1;
+
+	// Flag in the length of a compressed frame, and the largest frame that is accepted.
+	private static final int COMPRESSED = 0x80000000;
+	private static final int MAX_FRAME_SIZE = 1 << 24;
+	// Room in front of the data of a frame for its header.
+	private static final int HEADER_SIZE = 8;
+
+	private final int socketBufferSize;
+	private final int bufferSize;
+	private final boolean noDelay;
+	private final int compressionThreshold;
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	/**
+	 * @param socketBufferSize the size of the socket send and receive buffers, or 0 for those of the system
+	 * @param bufferSize the size of the stream buffers, or 0 for none
+	 * @param noDelay whether TCP_NODELAY is set, so small messages are not held back
+	 * @param compressionThreshold the size from which messages are compressed, or -1 for no compression
+	 */
+	public RmiSocketFactory(int socketBufferSize, int bufferSize, boolean noDelay, int compressionThreshold) {
+		if (socketBufferSize < 0 || bufferSize < 0 || bufferSize > MAX_FRAME_SIZE)
+			throw new IllegalArgumentException("Invalid buffer size");
+		if (compressionThreshold >= 0 && bufferSize == 0)
+			throw new IllegalArgumentException("Compression needs a buffer");
+		this.socketBufferSize = socketBufferSize;
+		this.bufferSize = bufferSize;
+		this.noDelay = noDelay;
+		this.compressionThreshold = Math.max(-1, compressionThreshold);
+	}
+
+	/**
+	 * Create socket factories with the settings in the system properties, and TCP_NODELAY on
+	 * by default.
+	 */
+	public static RmiSocketFactory fromSystemProperties() {
+		String noDelay = System.getProperty(NO_DELAY_PROPERTY);
+		return new RmiSocketFactory(Integer.getInteger(SOCKET_BUFFER_PROPERTY, 0),
+				Integer.getInteger(BUFFER_PROPERTY, DEFAULT_BUFFER_SIZE), noDelay == null || Boolean.parseBoolean(noDelay),
+				Integer.getInteger(COMPRESSION_THRESHOLD_PROPERTY, DEFAULT_COMPRESSION_THRESHOLD));
+	}
+
+	public boolean isCompressing() {
+		return compressionThreshold >= 0;
+	}
+
+	/***********
+	 * SOCKETS *
+	 ***********/
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		Socket socket = newSocket();
+		// Set before connecting, so a large receive buffer can be used from the start.
+		configure(socket);
+		socket.connect(new InetSocketAddress(host, port));
+		return socket;
+	}
+
+	@Override
+	public ServerSocket createServerSocket(int port) throws IOException {
+		ServerSocket serverSocket = new ServerSocket() {
+			@Override
+			public Socket accept() throws IOException {
+				Socket socket = newSocket();
+				implAccept(socket);
+				configure(socket);
+				return socket;
+			}
+		};
+		if (socketBufferSize > 0)
+			serverSocket.setReceiveBufferSize(socketBufferSize);
+		serverSocket.bind(new InetSocketAddress(port));
+		return serverSocket;
+	}
+
+	private Socket newSocket() {
+		return bufferSize == 0 ? new Socket() : new BufferedSocket();
+	}
+
+	private void configure(Socket socket) throws IOException {
+		socket.setTcpNoDelay(noDelay);
+		if (socketBufferSize > 0) {
+			socket.setSendBufferSize(socketBufferSize);
+			socket.setReceiveBufferSize(socketBufferSize);
+		}
+	}
+
+	/**
+	 * A socket whose streams are buffered, and framed if compressing.
+	 */
+	private class BufferedSocket extends Socket {
+		private InputStream in;
+		private OutputStream out;
+
+		@Override
+		public synchronized InputStream getInputStream() throws IOException {
+			if (in == null) {
+				InputStream raw = super.getInputStream();
+				in = isCompressing() ? new FrameInputStream(new BufferedInputStream(raw, bufferSize))
+						: new BufferedInputStream(raw, bufferSize);
+			}
+			return in;
+		}
+
+		@Override
+		public synchronized OutputStream getOutputStream() throws IOException {
+			if (out == null) {
+				OutputStream raw = super.getOutputStream();
+				out = isCompressing() ? new FrameOutputStream(raw, bufferSize, compressionThreshold)
+						: new BufferedOutputStream(raw, bufferSize);
+			}
+			return out;
+		}
+	}
+
+	/***********
+	 * FRAMING *
+	 ***********/
+
+	/**
+	 * Writes frames, compressing those of at least the threshold.
+	 */
+	private static class FrameOutputStream extends OutputStream {
+		private final OutputStream out;
+		private final int threshold;
+		private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+		// The data of the frame starts after the room for its header.
+		private final byte[] buffer;
+		private int count;
+		private byte[] compressed;
+
+		FrameOutputStream(OutputStream out, int bufferSize, int threshold) {
+			this.out = out;
+			this.threshold = threshold;
+			this.buffer = new byte[HEADER_SIZE + bufferSize];
+			this.compressed = new byte[HEADER_SIZE + bufferSize];
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (HEADER_SIZE + count == buffer.length)
+				writeFrame();
+			buffer[HEADER_SIZE + count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			Objects.checkFromIndexSize(offset, length, bytes.length);
+			while (length > 0) {
+				if (HEADER_SIZE + count == buffer.length)
+					writeFrame();
+				int chunk = Math.min(length, buffer.length - HEADER_SIZE - count);
+				System.arraycopy(bytes, offset, buffer, HEADER_SIZE + count, chunk);
+				count += chunk;
+				offset += chunk;
+				length -= chunk;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			writeFrame();
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				deflater.end();
+				out.close();
+			}
+		}
+
+		private void writeFrame() throws IOException {
+			if (count == 0)
+				return;
+			int compressedSize = count >= threshold ? compress() : count;
+			if (compressedSize < count) {
+				putInt(compressed, 0, COMPRESSED | compressedSize);
+				putInt(compressed, 4, count);
+				out.write(compressed, 0, HEADER_SIZE + compressedSize);
+			} else {
+				putInt(buffer, 4, count);
+				out.write(buffer, 4, 4 + count);
+			}
+			count = 0;
+		}
+
+		/**
+		 * Compress the frame into the compressed buffer, as long as that makes it smaller.
+		 *
+		 * @return the compressed size, or the uncompressed size if that is not smaller
+		 */
+		private int compress() {
+			deflater.reset();
+			deflater.setInput(buffer, HEADER_SIZE, count);
+			deflater.finish();
+			int size = 0;
+			while (!deflater.finished()) {
+				size += deflater.deflate(compressed, HEADER_SIZE + size, compressed.length - HEADER_SIZE - size);
+				if (size >= count)
+					return count;
+			}
+			return size;
+		}
+	}
+
+	/**
+	 * Reads the frames of a FrameOutputStream.
+	 */
+	private static class FrameInputStream extends InputStream {
+		private final DataInputStream in;
+		private final Inflater inflater = new Inflater(true);
+		private byte[] buffer = new byte[0];
+		private byte[] compressed = new byte[0];
+		private int position;
+		private int limit;
+
+		FrameInputStream(InputStream in) {
+			this.in = new DataInputStream(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (position == limit && !readFrame())
+				return -1;
+			return buffer[position++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			Objects.checkFromIndexSize(offset, length, bytes.length);
+			if (length == 0)
+				return 0;
+			if (position == limit && !readFrame())
+				return -1;
+			int chunk = Math.min(length, limit - position);
+			System.arraycopy(buffer, position, bytes, offset, chunk);
+			position += chunk;
+			return chunk;
+		}
+
+		@Override
+		public int available() {
+			return limit - position;
+		}
+
+		@Override
+		public void close() throws IOException {
+			inflater.end();
+			in.close();
+		}
+
+		/**
+		 * Read the next frame that is not empty.
+		 *
+		 * @return false at the end of the stream
+		 */
+		private boolean readFrame() throws IOException {
+			do {
+				int header;
+				try {
+					header = in.readInt();
+				} catch (EOFException exception) {
+					return false;
+				}
+				int size = header & ~COMPRESSED;
+				if (size > MAX_FRAME_SIZE)
+					throw new IOException("Frame of " + size + " bytes is too large");
+				if ((header & COMPRESSED) == 0) {
+					buffer = ensureCapacity(buffer, size);
+					in.readFully(buffer, 0, size);
+					limit = size;
+				} else {
+					int rawSize = in.readInt();
+					if (rawSize < 0 || rawSize > MAX_FRAME_SIZE)
+						throw new IOException("Frame of " + rawSize + " bytes is too large");
+					compressed = ensureCapacity(compressed, size);
+					in.readFully(compressed, 0, size);
+					buffer = ensureCapacity(buffer, rawSize);
+					limit = inflate(size, rawSize);
+				}
+				position = 0;
+			} while (limit == 0);
+			return true;
+		}
+
+		private int inflate(int size, int rawSize) throws IOException {
+			inflater.reset();
+			inflater.setInput(compressed, 0, size);
+			try {
+				int inflated = 0;
+				while (inflated < rawSize && !inflater.finished()) {
+					int chunk = inflater.inflate(buffer, inflated, rawSize - inflated);
+					if (chunk == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+						break;
+					inflated += chunk;
+				}
+				if (inflated != rawSize)
+					throw new IOException("Corrupt frame: " + inflated + " of " + rawSize + " bytes");
+				return inflated;
+			} catch (DataFormatException exception) {
+				throw new IOException("Corrupt frame", exception);
+			}
+		}
+
+		private static byte[] ensureCapacity(byte[] array, int size) {
+			return array.length >= size ? array : new byte[Math.max(size, 2 * array.length)];
+		}
+	}
+
+	private static void putInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+
+	/**********
+	 * EQUALS *
+	 **********/
+
+	// Connections are shared by stubs with equal client factories.
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		RmiSocketFactory other = (RmiSocketFactory) obj;
+		return socketBufferSize == other.socketBufferSize && bufferSize == other.bufferSize && noDelay == other.noDelay
+				&& compressionThreshold == other.compressionThreshold;
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(new int[] { socketBufferSize, bufferSize, noDelay ? 1 : 0, compressionThreshold });
+	}
+
+	@Override
+	public String toString() {
+		return "RmiSocketFactory[socketBuffer=" + socketBufferSize + ", buffer=" + bufferSize + ", noDelay=" + noDelay
+				+ ", compress=" + compressionThreshold + "]";
+	}
+}
@@ -0,0 +1,223 @@
+package company;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of the confirmed reservations of all cars of a company.
+ *
+ * The file starts with the last log segment it covers and the renter names, followed by one
+ * section per car and a directory of those sections at the end. Within a section, reservations
+ * are sorted on their start date and stored as variable-length differences, which makes them
+ * small. When loading, the sections are memory-mapped and the cars are rebuilt in parallel.
+ */
+class SnapshotFile {
+
+	private static final int MAGIC = 0x43524353;
+	private static final int FORMAT = 1;
+	// Sections are mapped in batches of at most this size.
+	private static final long MAX_BATCH_BYTES = 256L << 20;
+
+	private SnapshotFile() {
+	}
+
+	/*********
+	 * WRITE *
+	 *********/
+
+	/**
+	 * Write the reservations in the given fleet snapshots to the given file, replacing it at once
+	 * when complete.
+	 *
+	 * @param lastSegment the last segment of the reservation log whose records are in the snapshots
+	 */
+	public static void write(Path file, long lastSegment, Symbols renters, Collection<FleetSnapshot> fleets) throws IOException {
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT);
+			out.writeLong(lastSegment);
+			int nbRenters = renters.size();
+			WireFormat.writeVarInt(out, nbRenters);
+			for (int renter = 0; renter < nbRenters; renter++)
+				WireFormat.writeString(out, renters.get(renter));
+			out.flush();
+
+			List<Section> sections = new ArrayList<>();
+			long offset = channel.position();
+			ByteArrayOutputStream sectionBytes = new ByteArrayOutputStream();
+			DataOutputStream sectionOut = new DataOutputStream(sectionBytes);
+			for (FleetSnapshot fleet : fleets) {
+				for (int i = 0; i < fleet.getCars().size(); i++) {
+					ReservationIndex index = fleet.getReservationIndex(i);
+					if (index.size() == 0)
+						continue;
+					sectionBytes.reset();
+					writeSection(sectionOut, index);
+					sections.add(new Section(fleet.getCars().get(i).getId(), index.size(), offset, sectionBytes.size()));
+					sectionBytes.writeTo(out);
+					offset += sectionBytes.size();
+				}
+			}
+
+			WireFormat.writeVarInt(out, sections.size());
+			for (Section section : sections) {
+				WireFormat.writeVarInt(out, section.carId);
+				WireFormat.writeVarInt(out, section.count);
+				WireFormat.writeVarLong(out, section.offset);
+				WireFormat.writeVarInt(out, section.length);
+			}
+			out.writeLong(offset);
+			out.writeInt(MAGIC);
+			out.flush();
+			channel.force(true);
+		}
+		Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void writeSection(DataOutputStream out, ReservationIndex index) {
+		long[] previousStart = { 0 };
+		index.forEach((start, end, renter, price) -> {
+			try {
+				WireFormat.writeVarLong(out, start - previousStart[0]);
+				WireFormat.writeVarLong(out, end - start);
+				WireFormat.writeVarInt(out, renter);
+				out.writeDouble(price);
+			} catch (IOException exception) {
+				// Cannot happen when writing to memory.
+				throw new IllegalStateException(exception);
+			}
+			previousStart[0] = start;
+		});
+	}
+
+	/********
+	 * LOAD *
+	 ********/
+
+	/**
+	 * Give the given cars, which have no reservations yet, the reservations in the given file.
+	 * Renter names are added to the given symbols.
+	 *
+	 * @return the last segment of the reservation log that is covered by the file, or 0 if there is no file
+	 */
+	public static long load(Path file, Symbols renters, Map<Integer, Car> cars) throws IOException {
+		if (!Files.exists(file))
+			return 0;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer trailer = ByteBuffer.allocate(12);
+			channel.read(trailer, channel.size() - 12);
+			trailer.flip();
+			long directoryOffset = trailer.getLong();
+			if (trailer.getInt() != MAGIC)
+				throw new IOException("Incomplete snapshot " + file);
+
+			DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0))));
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT)
+				throw new IOException("Not a snapshot " + file);
+			long lastSegment = in.readLong();
+			int[] symbols = new int[WireFormat.readVarInt(in)];
+			for (int renter = 0; renter < symbols.length; renter++)
+				symbols[renter] = renters.intern(WireFormat.readString(in));
+
+			in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(directoryOffset))));
+			List<Section> sections = new ArrayList<>();
+			for (int i = WireFormat.readVarInt(in); i > 0; i--) {
+				sections.add(new Section(WireFormat.readVarInt(in), WireFormat.readVarInt(in), WireFormat.readVarLong(in),
+						WireFormat.readVarInt(in)));
+			}
+
+			for (List<Section> batch : batch(sections)) {
+				long from = batch.get(0).offset;
+				Section last = batch.get(batch.size() - 1);
+				MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, from, last.offset + last.length - from);
+				batch.parallelStream().forEach(section -> {
+					Car car = cars.get(section.carId);
+					if (car == null)
+						throw new IllegalStateException("Snapshot " + file + " has reservations of unknown car " + section.carId);
+					ByteBuffer buffer = mapped.duplicate();
+					buffer.position((int) (section.offset - from));
+					loadSection(buffer, section.count, symbols, car);
+				});
+			}
+			return lastSegment;
+		}
+	}
+
+	private static void loadSection(ByteBuffer in, int count, int[] symbols, Car car) {
+		long[] starts = new long[count];
+		long[] ends = new long[count];
+		int[] renters = new int[count];
+		double[] prices = new double[count];
+		long start = 0;
+		try {
+			for (int i = 0; i < count; i++) {
+				start += WireFormat.readVarLong(in);
+				starts[i] = start;
+				ends[i] = start + WireFormat.readVarLong(in);
+				renters[i] = symbols[(int) WireFormat.readVarLong(in)];
+				prices[i] = in.getDouble();
+			}
+		} catch (IOException exception) {
+			throw new UncheckedIOException(exception);
+		}
+		car.restoreReservations(starts, ends, renters, prices, count);
+	}
+
+	/**
+	 * Split the given consecutive sections in batches that can each be mapped at once.
+	 */
+	private static List<List<Section>> batch(List<Section> sections) {
+		List<List<Section>> batches = new ArrayList<>();
+		List<Section> batch = new ArrayList<>();
+		long batchBytes = 0;
+		for (Section section : sections) {
+			if (!batch.isEmpty() && batchBytes + section.length > MAX_BATCH_BYTES) {
+				batches.add(batch);
+				batch = new ArrayList<>();
+				batchBytes = 0;
+			}
+			batch.add(section);
+			batchBytes += section.length;
+		}
+		if (!batch.isEmpty())
+			batches.add(batch);
+		return batches;
+	}
+
+	/**
+	 * Where the reservations of one car are in the file.
+	 */
+	private static class Section {
+		final int carId;
+		final int count;
+		final long offset;
+		final int length;
+
+		Section(int carId, int count, long offset, int length) {
+			this.carId = carId;
+			this.count = count;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package company;
+
+import java.util.Date;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the reservations of one car type per start day, so the number of reservations that
+ * start in a period is an O(log days) query.
+ *
+ * The days are split in blocks of about three years. A Fenwick tree over the blocks holds the
+ * number of reservations per block, and each block that has reservations has a Fenwick tree
+ * over its own days, so memory only grows with the years that are in use.
+ *
+ * Reservations that do not start at the start of a day are kept apart by their exact start,
+ * and counted one by one. Updates must come from one thread at a time (the holder of the
+ * lock of the type); queries can run at any time.
+ */
+class StartHistogram {
+
+	// Supported days, the same as for the capacity trees.
+	private static final int FIRST_DAY = -(1 << 17);
+	private static final int NB_DAYS = 1 << 18;
+	private static final int BLOCK_SHIFT = 10;
+	private static final int BLOCK_DAYS = 1 << BLOCK_SHIFT;
+	private static final int NB_BLOCKS = NB_DAYS >> BLOCK_SHIFT;
+
+	// Fenwick trees, indexed from 1.
+	private final AtomicLongArray blocks = new AtomicLongArray(NB_BLOCKS + 1);
+	private final AtomicReferenceArray<AtomicIntegerArray> days = new AtomicReferenceArray<>(NB_BLOCKS);
+	// Number of reservations per exact start, for starts that are not the start of a day.
+	private final ConcurrentSkipListMap<Long, LongAdder> inexact = new ConcurrentSkipListMap<>();
+
+	/***********
+	 * UPDATES *
+	 ***********/
+
+	/**
+	 * Add the given number of reservations that start at the given date.
+	 */
+	public void add(Date start, int delta) {
+		int day = Days.toEpochDay(start) - FIRST_DAY;
+		if (day < 0 || day >= NB_DAYS || !Days.isStartOfDay(start)) {
+			LongAdder count = inexact.computeIfAbsent(start.getTime(), time -> new LongAdder());
+			count.add(delta);
+			if (count.sum() == 0)
+				inexact.remove(start.getTime());
+			return;
+		}
+
+		int block = day >> BLOCK_SHIFT;
+		AtomicIntegerArray blockDays = days.get(block);
+		if (blockDays == null) {
+			blockDays = new AtomicIntegerArray(BLOCK_DAYS + 1);
+			days.set(block, blockDays);
+		}
+		for (int i = (day & (BLOCK_DAYS - 1)) + 1; i <= BLOCK_DAYS; i += i & -i)
+			blockDays.addAndGet(i, delta);
+		for (int i = block + 1; i <= NB_BLOCKS; i += i & -i)
+			blocks.addAndGet(i, delta);
+	}
+
+	/***********
+	 * QUERIES *
+	 ***********/
+
+	/**
+	 * Get the number of reservations that start strictly after the given start and strictly
+	 * before the given end.
+	 */
+	public long count(Date start, Date end) {
+		if (!start.before(end))
+			return 0;
+		// A reservation that starts at the start of day d is in the period if d is after the day
+		// of the start, and before the day of the end (or on it, if the end is later that day).
+		int lastDay = Days.toEpochDay(end) - FIRST_DAY;
+		if (Days.isStartOfDay(end))
+			lastDay--;
+		long count = countUpTo(lastDay) - countUpTo(Days.toEpochDay(start) - FIRST_DAY);
+		for (LongAdder exact : inexact.subMap(start.getTime(), false, end.getTime(), false).values())
+			count += exact.sum();
+		return count;
+	}
+
+	/**
+	 * Get the number of reservations that start at the start of the given day (counted from
+	 * the first supported day) or earlier.
+	 */
+	private long countUpTo(int day) {
+		if (day < 0)
+			return 0;
+		if (day >= NB_DAYS)
+			day = NB_DAYS - 1;
+		int block = day >> BLOCK_SHIFT;
+		long count = 0;
+		for (int i = block; i > 0; i -= i & -i)
+			count += blocks.get(i);
+		AtomicIntegerArray blockDays = days.get(block);
+		if (blockDays != null) {
+			for (int i = (day & (BLOCK_DAYS - 1)) + 1; i > 0; i -= i & -i)
+				count += blockDays.get(i);
+		}
+		return count;
+	}
+}
@@ -0,0 +1,57 @@
+package company;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table of interned strings (such as renter names), so they can be stored as small ints.
+ *
+ * Symbols are never removed, so a symbol that was handed out stays valid. Looking up a
+ * symbol or a string never blocks; only interning a new string takes a lock.
+ */
+class Symbols {
+
+	private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+	private volatile String[] names = new String[16];
+	private int size;
+
+	/**
+	 * Get the symbol of the given string, creating one if needed.
+	 */
+	public int intern(String name) {
+		Integer id = ids.get(name);
+		if (id != null)
+			return id;
+		synchronized (this) {
+			id = ids.get(name);
+			if (id != null)
+				return id;
+			String[] grown = size == names.length ? Arrays.copyOf(names, 2 * size) : names;
+			grown[size] = name;
+			names = grown;
+			// Publish the string before its symbol, so every symbol that can be seen can also be looked up.
+			ids.put(name, size);
+			return size++;
+		}
+	}
+
+	/**
+	 * Get the symbol of the given string, or -1 if it was never interned.
+	 */
+	public int find(String name) {
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	public String get(int id) {
+		return names[id];
+	}
+
+	/**
+	 * Get the number of symbols, which are numbered from 0.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+}
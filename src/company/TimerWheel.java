@@ -0,0 +1,150 @@
+package company;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hashed timer wheel: runs tasks after a delay, with a precision of one tick.
+ *
+ * Timeouts are spread over a fixed ring of buckets by their deadline, and a single thread
+ * visits one bucket per tick. Scheduling and cancelling are O(1) and need no lock, so the
+ * wheel can keep track of very many short-lived timeouts (such as holds on cars) at once.
+ */
+class TimerWheel {
+
+	private static Logger logger = Logger.getLogger(TimerWheel.class.getName());
+
+	private final long tickNanos;
+	private final List<List<Timeout>> buckets;
+	private final long startTime = System.nanoTime();
+	// Timeouts that were scheduled but not yet put in their bucket by the worker thread.
+	private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+	// Number of ticks the worker thread has processed. Only used by the worker thread.
+	private long tick;
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	public TimerWheel(String name, long tickMillis, int nbBuckets) {
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		this.buckets = new ArrayList<>(nbBuckets);
+		for (int i = 0; i < nbBuckets; i++)
+			buckets.add(new ArrayList<>());
+
+		Thread worker = new Thread(this::run, name);
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**************
+	 * SCHEDULING *
+	 **************/
+
+	/**
+	 * Run the given task once the given delay has passed, unless the returned timeout is
+	 * cancelled before that. The task runs on the thread of this wheel, so it should be short.
+	 */
+	public Timeout schedule(Runnable task, long delayMillis) {
+		Timeout timeout = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+		scheduled.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * A scheduled task, which either expires (and runs) or is cancelled, but never both.
+	 */
+	static class Timeout {
+		private static final int PENDING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(PENDING);
+		// Full turns of the wheel left before the deadline. Only used by the worker thread.
+		private long rounds;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancel this timeout.
+		 *
+		 * @return false if the task already ran (or is running)
+		 */
+		public boolean cancel() {
+			return state.compareAndSet(PENDING, CANCELLED) || state.get() == CANCELLED;
+		}
+
+		private boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		private void expire() {
+			if (!state.compareAndSet(PENDING, EXPIRED))
+				return;
+			try {
+				task.run();
+			} catch (RuntimeException exception) {
+				logger.log(Level.WARNING, "Timer task failed", exception);
+			}
+		}
+	}
+
+	/**********
+	 * WORKER *
+	 **********/
+
+	private void run() {
+		while (true) {
+			long wait = startTime + (tick + 1) * tickNanos - System.nanoTime();
+			if (wait > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				} catch (InterruptedException exception) {
+					return;
+				}
+			}
+			transferScheduled();
+			expireBucket(buckets.get((int) (tick % buckets.size())));
+			tick++;
+		}
+	}
+
+	private void transferScheduled() {
+		Timeout timeout;
+		while ((timeout = scheduled.poll()) != null) {
+			if (timeout.isCancelled())
+				continue;
+			// The tick at which the deadline has passed; overdue timeouts go in the current bucket.
+			long due = Math.max(tick, (timeout.deadline - startTime + tickNanos - 1) / tickNanos);
+			timeout.rounds = (due - tick) / buckets.size();
+			buckets.get((int) (due % buckets.size())).add(timeout);
+		}
+	}
+
+	private void expireBucket(List<Timeout> bucket) {
+		Iterator<Timeout> timeouts = bucket.iterator();
+		while (timeouts.hasNext()) {
+			Timeout timeout = timeouts.next();
+			if (timeout.isCancelled()) {
+				timeouts.remove();
+			} else if (timeout.rounds > 0) {
+				timeout.rounds--;
+			} else {
+				timeouts.remove();
+				timeout.expire();
+			}
+		}
+	}
+}
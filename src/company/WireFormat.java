@@ -0,0 +1,120 @@
+package company;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+/**
+ * Compact encoding of the fields of the objects that are sent between the client, the
+ * rental agency and the car rental companies.
+ *
+ * Numbers are written as variable-length integers (7 bits per byte, zigzag-encoded so small
+ * negative numbers stay small) and dates as a number of days or hours whenever possible.
+ */
+public final class WireFormat {
+
+	private WireFormat() {
+	}
+
+	/************
+	 * INTEGERS *
+	 ************/
+
+	public static void writeVarLong(DataOutput out, long value) throws IOException {
+		long zigzag = (value << 1) ^ (value >> 63);
+		while ((zigzag & ~0x7FL) != 0) {
+			out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+			zigzag >>>= 7;
+		}
+		out.writeByte((int) zigzag);
+	}
+
+	public static long readVarLong(DataInput in) throws IOException {
+		long zigzag = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.readByte();
+			zigzag |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return (zigzag >>> 1) ^ -(zigzag & 1);
+		}
+		throw new IOException("Malformed variable-length integer");
+	}
+
+	public static long readVarLong(ByteBuffer in) throws IOException {
+		long zigzag = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			zigzag |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return (zigzag >>> 1) ^ -(zigzag & 1);
+		}
+		throw new IOException("Malformed variable-length integer");
+	}
+
+	public static void writeVarInt(DataOutput out, int value) throws IOException {
+		writeVarLong(out, value);
+	}
+
+	public static int readVarInt(DataInput in) throws IOException {
+		return (int) readVarLong(in);
+	}
+
+	/*********
+	 * DATES *
+	 *********/
+
+	// The two lowest bits of an encoded date tell in which unit the rest is.
+	private static final int NO_DATE = 0;
+	private static final int DAYS = 1;
+	private static final int HOURS = 2;
+	private static final int MILLIS = 3;
+
+	private static final long MILLIS_PER_HOUR = 60 * 60 * 1000L;
+	private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+	/**
+	 * Write the given (possibly null) date in the largest unit that represents it exactly.
+	 * Days and hours are counted from 1/1/1970 UTC, so both sides need not share a time zone:
+	 * midnight in most time zones is a whole number of hours.
+	 */
+	public static void writeDate(DataOutput out, Date date) throws IOException {
+		if (date == null)
+			writeVarLong(out, NO_DATE);
+		else if (date.getTime() % MILLIS_PER_DAY == 0)
+			writeVarLong(out, (date.getTime() / MILLIS_PER_DAY << 2) | DAYS);
+		else if (date.getTime() % MILLIS_PER_HOUR == 0)
+			writeVarLong(out, (date.getTime() / MILLIS_PER_HOUR << 2) | HOURS);
+		else
+			writeVarLong(out, (date.getTime() << 2) | MILLIS);
+	}
+
+	public static Date readDate(DataInput in) throws IOException {
+		long value = readVarLong(in);
+		switch ((int) (value & 3)) {
+		case DAYS:
+			return new Date((value >> 2) * MILLIS_PER_DAY);
+		case HOURS:
+			return new Date((value >> 2) * MILLIS_PER_HOUR);
+		case MILLIS:
+			return new Date(value >> 2);
+		default:
+			return null;
+		}
+	}
+
+	/***********
+	 * STRINGS *
+	 ***********/
+
+	public static void writeString(DataOutput out, String string) throws IOException {
+		out.writeBoolean(string != null);
+		if (string != null)
+			out.writeUTF(string);
+	}
+
+	public static String readString(DataInput in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
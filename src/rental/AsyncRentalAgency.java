@@ -0,0 +1,292 @@
+package rental;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import company.CarType;
+import company.ICarRentalCompany;
+import company.Reservation;
+import company.ReservationConstraints;
+
+/**
+ * Asynchronous facade for a rental agency and its sessions, for clients that keep many calls
+ * outstanding at once instead of blocking a thread of their own on every call.
+ *
+ * Every remote operation returns a CompletableFuture right away. The call itself runs on a
+ * virtual thread on JVMs that have them (Java 21 and later), and on a fixed pool of threads
+ * otherwise. At most a fixed number of calls is in flight; a call beyond that fails at once
+ * with a RejectedExecutionException, so callers can back off instead of piling up calls.
+ */
+public class AsyncRentalAgency implements AutoCloseable {
+
+	// Defaults for the number of outstanding calls, and the threads that make them without virtual threads.
+	public static final int DEFAULT_MAX_IN_FLIGHT = 4096;
+	public static final int DEFAULT_POOL_THREADS = 256;
+
+	private final IRentalAgency agency;
+	private final ExecutorService executor;
+	private final int maxInFlight;
+	private final Semaphore inFlight;
+
+	/**
+	 * A blocking remote call.
+	 */
+	interface Call<T> {
+		T call() throws Exception;
+	}
+
+	/**
+	 * A blocking remote call without an answer.
+	 */
+	interface Action {
+		void run() throws Exception;
+	}
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	public AsyncRentalAgency(IRentalAgency agency) {
+		this(agency, DEFAULT_MAX_IN_FLIGHT, DEFAULT_POOL_THREADS);
+	}
+
+	/**
+	 * @param maxInFlight the maximum number of calls that are outstanding at once
+	 * @param poolThreads the number of threads that make the calls, if there are no virtual threads
+	 */
+	public AsyncRentalAgency(IRentalAgency agency, int maxInFlight, int poolThreads) {
+		this.agency = agency;
+		this.executor = newExecutor(poolThreads);
+		this.maxInFlight = maxInFlight;
+		this.inFlight = new Semaphore(maxInFlight);
+	}
+
+	private static ExecutorService newExecutor(int poolThreads) {
+		try {
+			// Only exists from Java 21 on.
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException exception) {
+			AtomicInteger threadCount = new AtomicInteger();
+			return Executors.newFixedThreadPool(poolThreads, task -> {
+				Thread thread = new Thread(task, "async-rental-agency-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * Stop making calls. Calls that are still queued or running are not interrupted.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Get the number of calls that are outstanding.
+	 */
+	public int getNbInFlight() {
+		return maxInFlight - inFlight.availablePermits();
+	}
+
+	/***********
+	 * CALLING *
+	 ***********/
+
+	<T> CompletableFuture<T> submit(Call<T> call) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		if (!inFlight.tryAcquire()) {
+			future.completeExceptionally(new RejectedExecutionException("More than " + maxInFlight + " calls in flight"));
+			return future;
+		}
+		try {
+			executor.execute(() -> {
+				T answer = null;
+				Throwable failure = null;
+				try {
+					answer = call.call();
+				} catch (Throwable exception) {
+					failure = exception;
+				}
+				// Release first, so callbacks of the future can make the next call right away.
+				inFlight.release();
+				if (failure == null)
+					future.complete(answer);
+				else
+					future.completeExceptionally(failure);
+			});
+		} catch (RejectedExecutionException exception) {
+			inFlight.release();
+			future.completeExceptionally(exception);
+		}
+		return future;
+	}
+
+	CompletableFuture<Void> submit(Action action) {
+		return submit(() -> {
+			action.run();
+			return null;
+		});
+	}
+
+	/**********
+	 * AGENCY *
+	 **********/
+
+	public CompletableFuture<String> getName() {
+		return submit(() -> agency.getName());
+	}
+
+	public CompletableFuture<Void> addCompany(String crcName) {
+		return submit(() -> agency.addCompany(crcName));
+	}
+
+	public CompletableFuture<Void> removeCompany(ICarRentalCompany company) {
+		return submit(() -> agency.removeCompany(company));
+	}
+
+	public CompletableFuture<ICarRentalCompany> getCompany(String name) {
+		return submit(() -> agency.getCompany(name));
+	}
+
+	public CompletableFuture<Set<ICarRentalCompany>> getCompanies() {
+		return submit(() -> agency.getCompanies());
+	}
+
+	public CompletableFuture<Set<CarType>> getCarTypes() {
+		return submit(() -> agency.getCarTypes());
+	}
+
+	public CompletableFuture<AsyncReservationSession> getNewReservationSession(String owner) {
+		return submit(() -> new AsyncReservationSession(agency.getNewReservationSession(owner)));
+	}
+
+	public CompletableFuture<AsyncManagerSession> getNewManagerSession(String owner) {
+		return submit(() -> new AsyncManagerSession(agency.getNewManagerSession(owner)));
+	}
+
+	public CompletableFuture<Set<CarType>> getAvailableCarTypes(Date start, Date end) {
+		return submit(() -> agency.getAvailableCarTypes(start, end));
+	}
+
+	public CompletableFuture<Quote> createQuote(ReservationConstraints constraints, String client) {
+		return submit(() -> agency.createQuote(constraints, client));
+	}
+
+	public CompletableFuture<List<Reservation>> confirmQuotes(Set<Quote> quotes) {
+		return submit(() -> agency.confirmQuotes(quotes));
+	}
+
+	public CompletableFuture<Set<CarType>> getAvailableCarTypesForRegion(Date start, Date end, String region) {
+		return submit(() -> agency.getAvailableCarTypesForRegion(start, end, region));
+	}
+
+	public CompletableFuture<Integer> getNumberOfReservationsForCarType(String company, String type) {
+		return submit(() -> agency.getNumberOfReservationsForCarType(company, type));
+	}
+
+	public CompletableFuture<Set<String>> getBestRenters() {
+		return submit(() -> agency.getBestRenters());
+	}
+
+	public CompletableFuture<Integer> getNumResByRenter(String name) {
+		return submit(() -> agency.getNumResByRenter(name));
+	}
+
+	public CompletableFuture<CarType> getMostPopularCarType(Date start, Date end, String carRentalCompanyName) {
+		return submit(() -> agency.getMostPopularCarType(start, end, carRentalCompanyName));
+	}
+
+	/************
+	 * SESSIONS *
+	 ************/
+
+	/**
+	 * Asynchronous facade for a reservation session, sharing the calls in flight of the agency.
+	 */
+	public class AsyncReservationSession {
+		private final ReservationSession session;
+
+		AsyncReservationSession(ReservationSession session) {
+			this.session = session;
+		}
+
+		public CompletableFuture<Void> checkForAvailableCarTypes(Date start, Date end) {
+			return submit(() -> session.checkForAvailableCarTypes(start, end));
+		}
+
+		public CompletableFuture<Void> createQuote(ReservationConstraints constraints, String client) {
+			return submit(() -> session.createQuote(constraints, client));
+		}
+
+		/**
+		 * Get the set of pending quotes of this reservation session, which needs no remote call.
+		 */
+		public Set<Quote> getCurrentQuotes() {
+			return session.getCurrentQuotes();
+		}
+
+		public CompletableFuture<List<Reservation>> confirmQuotes() {
+			return submit(() -> session.confirmQuotes());
+		}
+
+		public CompletableFuture<Set<CarType>> getAvailableCarTypesForRegion(Date start, Date end, String region) {
+			return submit(() -> session.getAvailableCarTypesForRegion(start, end, region));
+		}
+
+		public CompletableFuture<CarType> getCheapestCarType(Date start, Date end, String region) {
+			return submit(() -> session.getCheapestCarType(start, end, region));
+		}
+	}
+
+	/**
+	 * Asynchronous facade for a manager session, sharing the calls in flight of the agency.
+	 */
+	public class AsyncManagerSession {
+		private final ManagerSession session;
+
+		AsyncManagerSession(ManagerSession session) {
+			this.session = session;
+		}
+
+		public CompletableFuture<Void> registerCRC(String crcName) {
+			return submit(() -> session.registerCRC(crcName));
+		}
+
+		public CompletableFuture<Void> unRegisterCRC(ICarRentalCompany company) {
+			return submit(() -> session.unRegisterCRC(company));
+		}
+
+		public CompletableFuture<Set<ICarRentalCompany>> getCompanies() {
+			return submit(() -> session.getCompanies());
+		}
+
+		public CompletableFuture<Set<CarType>> getCarTypes() {
+			return submit(() -> session.getCarTypes());
+		}
+
+		public CompletableFuture<Integer> getNumberOfReservationsForCarType(String company, String type) {
+			return submit(() -> session.getNumberOfReservationsForCarType(company, type));
+		}
+
+		public CompletableFuture<Set<String>> getBestRenters() {
+			return submit(() -> session.getBestRenters());
+		}
+
+		public CompletableFuture<Integer> getNumResByRenter(String name) {
+			return submit(() -> session.getNumResByRenter(name));
+		}
+
+		public CompletableFuture<CarType> getMostPopularCarType(Date start, Date end, String carRentalCompanyName) {
+			return submit(() -> session.getMostPopularCarType(start, end, carRentalCompanyName));
+		}
+	}
+}
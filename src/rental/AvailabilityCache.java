@@ -0,0 +1,106 @@
+package rental;
+
+import java.util.BitSet;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import company.ICarRentalCompany;
+
+/**
+ * Bounded cache of the available car types of a company in a period, as ids in the
+ * catalogue of that company.
+ *
+ * Every answer is stored with the state version the company reported before computing it.
+ * A cached answer is only used while the company still reports that same version, so it
+ * is never stale; it merely saves recomputing (and sending) the answer. The least recently
+ * used answers are evicted when the cache is full, and answers expire after a fixed time.
+ */
+class AvailabilityCache {
+
+	private final long timeToLiveMillis;
+	private final Map<Key, Answer> answers;
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	public AvailabilityCache(int capacity, long timeToLiveMillis) {
+		this.timeToLiveMillis = timeToLiveMillis;
+		this.answers = new LinkedHashMap<Key, Answer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Answer> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/***********
+	 * LOOKUPS *
+	 ***********/
+
+	/**
+	 * Get the cached answer of the given company for the given period, or null if there is
+	 * no answer for the given version of the company. The answer must not be changed.
+	 */
+	public synchronized BitSet get(ICarRentalCompany company, Date start, Date end, long version) {
+		Key key = new Key(company, start, end);
+		Answer answer = answers.get(key);
+		if (answer == null)
+			return null;
+		if (answer.version != version || System.currentTimeMillis() - answer.created > timeToLiveMillis) {
+			answers.remove(key);
+			return null;
+		}
+		return answer.typeIds;
+	}
+
+	public synchronized void put(ICarRentalCompany company, Date start, Date end, long version, BitSet typeIds) {
+		answers.put(new Key(company, start, end), new Answer(version, typeIds));
+	}
+
+	/***********
+	 * ENTRIES *
+	 ***********/
+
+	private static class Key {
+		final ICarRentalCompany company;
+		final long start;
+		final long end;
+
+		Key(ICarRentalCompany company, Date start, Date end) {
+			this.company = company;
+			this.start = start.getTime();
+			this.end = end.getTime();
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(company, start, end);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return start == other.start && end == other.end && company.equals(other.company);
+		}
+	}
+
+	private static class Answer {
+		final long version;
+		final long created = System.currentTimeMillis();
+		final BitSet typeIds;
+
+		Answer(long version, BitSet typeIds) {
+			this.version = version;
+			this.typeIds = (BitSet) typeIds.clone();
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package rental;
+
+import java.rmi.RemoteException;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import company.CarType;
+import company.CarTypeCatalogue;
+import company.ICarRentalCompany;
+
+/**
+ * Local directory of the car rental companies of an agency: their stubs by name, the
+ * companies per region and the car types per company.
+ *
+ * The metadata is fetched once when a company is registered (or refreshed), so routing
+ * requests does not need any remote calls. Lookups never block; the region index is
+ * rebuilt on every (rare) change and replaced as a whole.
+ *
+ * Equal car types of different companies share one canonical id, so the available car
+ * types of all companies can be merged as bitsets and expanded only once.
+ */
+class CompanyDirectory {
+
+	private final Map<String, Entry> byName = new ConcurrentHashMap<>();
+	private final Map<ICarRentalCompany, Entry> byCompany = new ConcurrentHashMap<>();
+	private volatile Map<String, Set<Entry>> byRegion = Collections.emptyMap();
+	// Canonical car types by id and the other way around. Ids are never reused.
+	private final List<CarType> canonicalTypes = new CopyOnWriteArrayList<>();
+	private final Map<CarType, Integer> canonicalIds = new HashMap<>();
+
+	/**
+	 * Metadata of one registered car rental company.
+	 */
+	static class Entry {
+		final String name;
+		final ICarRentalCompany company;
+		final List<String> regions;
+		final Set<CarType> carTypes = new HashSet<>();
+		final Set<String> carTypeNames = new HashSet<>();
+		// Canonical id of every car type in the catalogue of the company.
+		final int[] canonicalIds;
+
+		Entry(String name, ICarRentalCompany company, List<String> regions, CarTypeCatalogue catalogue, int[] canonicalIds) {
+			this.name = name;
+			this.company = company;
+			this.regions = Collections.unmodifiableList(regions);
+			this.canonicalIds = canonicalIds;
+			for (CarType type : catalogue.getTypes()) {
+				carTypes.add(type);
+				carTypeNames.add(type.getName());
+			}
+		}
+	}
+
+	/***********
+	 * UPDATES *
+	 ***********/
+
+	/**
+	 * Fetch the metadata of the given company and add it to this directory, replacing any
+	 * earlier entry of the same company.
+	 */
+	public void refresh(ICarRentalCompany company) throws RemoteException {
+		String name = company.getName();
+		List<String> regions = company.getRegions();
+		CarTypeCatalogue catalogue = company.getCarTypeCatalogue();
+		synchronized (this) {
+			int[] ids = new int[catalogue.size()];
+			for (int id = 0; id < ids.length; id++)
+				ids[id] = getCanonicalId(catalogue.get(id));
+			Entry entry = new Entry(name, company, regions, catalogue, ids);
+			Entry replaced = byName.put(entry.name, entry);
+			if (replaced != null)
+				byCompany.remove(replaced.company);
+			byCompany.put(company, entry);
+			rebuildRegions();
+		}
+	}
+
+	public synchronized void remove(ICarRentalCompany company) {
+		byName.values().removeIf(entry -> entry.company.equals(company));
+		byCompany.remove(company);
+		rebuildRegions();
+	}
+
+	private int getCanonicalId(CarType type) {
+		Integer id = canonicalIds.get(type);
+		if (id == null) {
+			id = canonicalTypes.size();
+			canonicalTypes.add(type);
+			canonicalIds.put(type, id);
+		}
+		return id;
+	}
+
+	private void rebuildRegions() {
+		Map<String, Set<Entry>> regions = new HashMap<>();
+		for (Entry entry : byName.values()) {
+			for (String region : entry.regions)
+				regions.computeIfAbsent(region, key -> new HashSet<>()).add(entry);
+		}
+		for (Map.Entry<String, Set<Entry>> region : regions.entrySet())
+			region.setValue(Collections.unmodifiableSet(region.getValue()));
+		byRegion = regions;
+	}
+
+	/***********
+	 * LOOKUPS *
+	 ***********/
+
+	public ICarRentalCompany getCompany(String name) {
+		Entry entry = byName.get(name);
+		return entry == null ? null : entry.company;
+	}
+
+	public Set<ICarRentalCompany> getCompanies() {
+		Set<ICarRentalCompany> companies = new HashSet<>();
+		for (Entry entry : byName.values())
+			companies.add(entry.company);
+		return companies;
+	}
+
+	public Set<ICarRentalCompany> getCompaniesInRegion(String region) {
+		Set<ICarRentalCompany> companies = new HashSet<>();
+		for (Entry entry : byRegion.getOrDefault(region, Collections.<Entry>emptySet()))
+			companies.add(entry.company);
+		return companies;
+	}
+
+	/**
+	 * Get the companies that operate in the given region and offer the given car type.
+	 */
+	public Set<ICarRentalCompany> getCompaniesOffering(String region, String carTypeName) {
+		Set<ICarRentalCompany> companies = new HashSet<>();
+		for (Entry entry : byRegion.getOrDefault(region, Collections.<Entry>emptySet())) {
+			if (entry.carTypeNames.contains(carTypeName))
+				companies.add(entry.company);
+		}
+		return companies;
+	}
+
+	public Set<CarType> getCarTypes() {
+		Set<CarType> types = new HashSet<>();
+		for (Entry entry : byName.values())
+			types.addAll(entry.carTypes);
+		return types;
+	}
+
+	/*************
+	 * CAR TYPES *
+	 *************/
+
+	/**
+	 * Translate ids in the catalogue of the given company to canonical ids. Gives no ids
+	 * for a company that is not (or no longer) in this directory.
+	 */
+	public BitSet toCanonicalIds(ICarRentalCompany company, BitSet companyIds) {
+		BitSet ids = new BitSet();
+		Entry entry = byCompany.get(company);
+		if (entry == null)
+			return ids;
+		for (int id = companyIds.nextSetBit(0); id >= 0; id = companyIds.nextSetBit(id + 1))
+			ids.set(entry.canonicalIds[id]);
+		return ids;
+	}
+
+	/**
+	 * Get the car types with the given canonical ids.
+	 */
+	public Set<CarType> getCarTypes(BitSet canonicalIds) {
+		Set<CarType> types = new HashSet<>();
+		for (int id = canonicalIds.nextSetBit(0); id >= 0; id = canonicalIds.nextSetBit(id + 1))
+			types.add(canonicalTypes.get(id));
+		return types;
+	}
+}
@@ -0,0 +1,238 @@
+package rental;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import company.ICarRentalCompany;
+
+/**
+ * Sends the same request to several car rental companies at once, on a bounded pool of threads.
+ *
+ * Every company gets the same deadline. Companies that fail or do not answer in time are
+ * left out of the result (and logged), so one slow or crashed company does not hold up
+ * the answer of the others.
+ */
+class CompanyFanOut {
+
+	private static Logger logger = Logger.getLogger(CompanyFanOut.class.getName());
+
+	// Stands for no answer in sendAny.
+	private static final Object NO_ANSWER = new Object();
+
+	private final ExecutorService executor;
+	private final long deadlineMillis;
+
+	/**
+	 * A remote call to a single car rental company.
+	 */
+	interface Request<T> {
+		T send(ICarRentalCompany company) throws RemoteException;
+	}
+
+	/**
+	 * Receives the answers that are not null, but are not used: those of companies that answered
+	 * after the deadline, or after the answer that sendAny returned.
+	 */
+	interface Unused<T> {
+		void accept(ICarRentalCompany company, T answer);
+	}
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	public CompanyFanOut(int nbThreads, long deadlineMillis) {
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(nbThreads, task -> {
+			Thread thread = new Thread(task, "company-fan-out-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.deadlineMillis = deadlineMillis;
+	}
+
+	/***********
+	 * SENDING *
+	 ***********/
+
+	/**
+	 * Send the given request to all given companies in parallel and collect the answers
+	 * of the companies that answered before the deadline.
+	 *
+	 * @throws RemoteException if there were companies, but none of them answered
+	 */
+	public <T> Map<ICarRentalCompany, T> send(Collection<ICarRentalCompany> companies, Request<T> request)
+			throws RemoteException {
+		return send(companies, request, null);
+	}
+
+	/**
+	 * Send the given request like {@link #send(Collection, Request)}, and pass the answers that
+	 * arrive after the deadline to the given receiver.
+	 */
+	public <T> Map<ICarRentalCompany, T> send(Collection<ICarRentalCompany> companies, Request<T> request,
+			Unused<T> unused) throws RemoteException {
+		Map<ICarRentalCompany, Future<T>> pending = new LinkedHashMap<>();
+		Map<ICarRentalCompany, AtomicBoolean> late = new HashMap<>();
+		for (ICarRentalCompany company : companies) {
+			AtomicBoolean tooLate = new AtomicBoolean();
+			late.put(company, tooLate);
+			pending.put(company, executor.submit(() -> {
+				T answer = request.send(company);
+				// Whoever sets the flag first decides: the answer is either collected, or unused.
+				if (tooLate.getAndSet(true) && answer != null && unused != null)
+					unused.accept(company, answer);
+				return answer;
+			}));
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+		Map<ICarRentalCompany, T> answers = new LinkedHashMap<>();
+		Exception lastFailure = null;
+		for (Map.Entry<ICarRentalCompany, Future<T>> entry : pending.entrySet()) {
+			try {
+				answers.put(entry.getKey(), entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+			} catch (TimeoutException exception) {
+				if (!late.get(entry.getKey()).getAndSet(true)) {
+					// Still running: a remote call cannot be stopped, so only a call that did not start yet is.
+					entry.getValue().cancel(false);
+					logger.log(Level.WARNING, "Car rental company did not answer within {0} ms, leaving it out", deadlineMillis);
+					lastFailure = exception;
+					continue;
+				}
+				// The answer came in just now.
+				try {
+					answers.put(entry.getKey(), entry.getValue().get());
+				} catch (ExecutionException failure) {
+					logger.log(Level.WARNING, "Car rental company failed to answer, leaving it out", failure.getCause());
+					lastFailure = failure;
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw new RemoteException("Interrupted while waiting for the car rental companies", interrupted);
+				}
+			} catch (ExecutionException exception) {
+				logger.log(Level.WARNING, "Car rental company failed to answer, leaving it out", exception.getCause());
+				lastFailure = exception;
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				throw new RemoteException("Interrupted while waiting for the car rental companies", exception);
+			}
+		}
+
+		if (answers.isEmpty() && lastFailure != null)
+			throw new RemoteException("None of the car rental companies answered", lastFailure);
+		return answers;
+	}
+
+	/**
+	 * Send the given request like {@link #send(Collection, Request)}, for answers that are only
+	 * correct if all companies contributed to them.
+	 *
+	 * @throws RemoteException if one of the companies failed or did not answer in time
+	 */
+	public <T> Map<ICarRentalCompany, T> sendAll(Collection<ICarRentalCompany> companies, Request<T> request)
+			throws RemoteException {
+		Map<ICarRentalCompany, T> answers = send(companies, request);
+		if (answers.size() < companies.size())
+			throw new RemoteException("Only " + answers.size() + " of the " + companies.size()
+					+ " car rental companies answered");
+		return answers;
+	}
+
+	/**
+	 * Send the given request to the given company in the background, without waiting for
+	 * (or caring about) the answer.
+	 */
+	public void post(ICarRentalCompany company, Request<?> request) {
+		executor.execute(() -> {
+			try {
+				request.send(company);
+			} catch (RemoteException | RuntimeException exception) {
+				logger.log(Level.WARNING, "Car rental company failed to handle a background request", exception);
+			}
+		});
+	}
+
+	/**
+	 * Send the given request to all given companies in parallel and return the first answer
+	 * that is not null. The requests that did not start at that point are cancelled; the
+	 * answers of the others, and those that arrive after the deadline, are passed to the given
+	 * receiver.
+	 *
+	 * @return the first answer, or null if no company gave one before the deadline
+	 * @throws RemoteException if there were companies, but none of them answered
+	 */
+	public <T> T sendAny(Collection<ICarRentalCompany> companies, Request<T> request, Unused<T> unused)
+			throws RemoteException {
+		CompletionService<T> completion = new ExecutorCompletionService<>(executor);
+		List<Future<T>> pending = new ArrayList<>();
+		// The first answer that is not null, or NO_ANSWER once the caller stopped waiting.
+		AtomicReference<Object> winner = new AtomicReference<>();
+		for (ICarRentalCompany company : companies) {
+			pending.add(completion.submit(() -> {
+				T answer = request.send(company);
+				if (answer != null && !winner.compareAndSet(null, answer))
+					unused.accept(company, answer);
+				return answer;
+			}));
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+		int nbAnswers = 0;
+		Exception lastFailure = null;
+		try {
+			for (int i = 0; i < pending.size(); i++) {
+				Future<T> done = completion.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+				if (done == null) {
+					logger.log(Level.WARNING, "Not all car rental companies answered within {0} ms", deadlineMillis);
+					break;
+				}
+				try {
+					T answer = done.get();
+					nbAnswers++;
+					// Answers can finish in another order than they won: the winner is returned below.
+					if (answer != null)
+						break;
+				} catch (ExecutionException exception) {
+					logger.log(Level.WARNING, "Car rental company failed to answer, leaving it out", exception.getCause());
+					lastFailure = exception;
+				}
+			}
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException("Interrupted while waiting for the car rental companies", exception);
+		} finally {
+			for (Future<T> future : pending)
+				future.cancel(false);
+			// From now on every answer that comes in is unused.
+			winner.compareAndSet(null, NO_ANSWER);
+		}
+		if (winner.get() != NO_ANSWER) {
+			@SuppressWarnings("unchecked")
+			T answer = (T) winner.get();
+			return answer;
+		}
+
+		if (nbAnswers == 0 && lastFailure != null)
+			throw new RemoteException("None of the car rental companies answered", lastFailure);
+		return null;
+	}
+}
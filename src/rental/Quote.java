@@ -1,9 +1,14 @@
 package rental;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.Date;
 
-public class Quote implements Serializable {
+import company.WireFormat;
+
+public class Quote implements Externalizable {
 
     /**
 	 * 
@@ -29,6 +34,12 @@ public class Quote implements Serializable {
         this.rentalPrice = rentalPrice;
     }
 
+    /**
+     * Only for deserialization.
+     */
+    public Quote() {
+    }
+
     public Date getStartDate() {
         return startDate;
     }
@@ -53,6 +64,30 @@ public class Quote implements Serializable {
 		return carType;
 	}
     
+    /*****************
+     * SERIALIZATION *
+     *****************/
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        WireFormat.writeString(out, carRenter);
+        WireFormat.writeDate(out, startDate);
+        WireFormat.writeDate(out, endDate);
+        WireFormat.writeString(out, rentalCompany);
+        WireFormat.writeString(out, carType);
+        out.writeDouble(rentalPrice);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        carRenter = WireFormat.readString(in);
+        startDate = WireFormat.readDate(in);
+        endDate = WireFormat.readDate(in);
+        rentalCompany = WireFormat.readString(in);
+        carType = WireFormat.readString(in);
+        rentalPrice = in.readDouble();
+    }
+
     /*************
      * TO STRING *
      *************/
@@ -0,0 +1,19 @@
+package rental;
+
+/**
+ * How a rental agency picks a quote when several car rental companies can satisfy the
+ * same reservation constraints.
+ */
+public enum QuotePolicy {
+	
+	/**
+	 * Ask all candidate companies and take the cheapest quote.
+	 */
+	CHEAPEST,
+	
+	/**
+	 * Take the quote of the first candidate company that answers.
+	 */
+	FIRST_AVAILABLE
+	
+}
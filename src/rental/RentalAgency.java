@@ -5,13 +5,18 @@ import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.UUID;
 
 import company.CarType;
 import company.ICarRentalCompany;
@@ -21,12 +26,34 @@ import company.ReservationException;
 
 public class RentalAgency implements IRentalAgency {
 	
+	// Defaults for querying all car rental companies in parallel.
+	public static final int DEFAULT_FAN_OUT_THREADS = 16;
+	public static final long DEFAULT_COMPANY_DEADLINE_MILLIS = 5000;
+	// Bounds of the cache of availability answers per company and period.
+	public static final int AVAILABILITY_CACHE_SIZE = 4096;
+	public static final long AVAILABILITY_CACHE_TTL_MILLIS = 60000;
+	
 	private String name;
 	
-	private Set<ICarRentalCompany> companies = new HashSet<>();
+	private CompanyDirectory directory = new CompanyDirectory();
+	
+	private CompanyFanOut fanOut;
+	
+	private volatile QuotePolicy quotePolicy = QuotePolicy.CHEAPEST;
+	
+	private AvailabilityCache availabilityCache = new AvailabilityCache(AVAILABILITY_CACHE_SIZE, AVAILABILITY_CACHE_TTL_MILLIS);
 	
 	public RentalAgency(String name) {
+		this(name, DEFAULT_FAN_OUT_THREADS, DEFAULT_COMPANY_DEADLINE_MILLIS);
+	}
+	
+	/**
+	 * Create a rental agency that queries its companies with at most the given number of
+	 * parallel calls, and leaves out companies that do not answer within the given deadline.
+	 */
+	public RentalAgency(String name, int fanOutThreads, long companyDeadlineMillis) {
 		this.name = name;
+		this.fanOut = new CompanyFanOut(fanOutThreads, companyDeadlineMillis);
 	}
 	
 	@Override
@@ -34,13 +61,20 @@ public class RentalAgency implements IRentalAgency {
 		return name;
 	}
 	
+	/**
+	 * Set how this agency picks a quote when several companies can satisfy the constraints.
+	 */
+	public void setQuotePolicy(QuotePolicy quotePolicy) {
+		this.quotePolicy = quotePolicy;
+	}
+	
 	/**
 	 * Add a car rental company to this rental agency by looking it up in the registry.
 	 */
 	@Override
 	public void addCompany(String crcName) throws RemoteException, NotBoundException {
 		Registry registry = LocateRegistry.getRegistry(14540);
-		companies.add((ICarRentalCompany) registry.lookup(crcName));
+		directory.refresh((ICarRentalCompany) registry.lookup(crcName));
 	}
 	
 	/**
@@ -48,7 +82,7 @@ public class RentalAgency implements IRentalAgency {
 	 */
 	@Override
 	public void removeCompany(ICarRentalCompany company) throws RemoteException {
-		companies.remove(company);
+		directory.remove(company);
 	}
 	
 	/**
@@ -56,12 +90,7 @@ public class RentalAgency implements IRentalAgency {
 	 */
 	@Override
 	public ICarRentalCompany getCompany(String name) throws RemoteException {
-		for (ICarRentalCompany company : companies) {
-			if (company.getName().equals(name))
-				return company;
-		}
-		
-		return null;
+		return directory.getCompany(name);
 	}
 	
 	/**
@@ -69,7 +98,7 @@ public class RentalAgency implements IRentalAgency {
 	 */
 	@Override
 	public Set<ICarRentalCompany> getCompanies() {
-		return new HashSet<>(companies);
+		return directory.getCompanies();
 	}
 	
 	/**
@@ -77,11 +106,7 @@ public class RentalAgency implements IRentalAgency {
 	 */
 	@Override
 	public Set<CarType> getCarTypes() throws RemoteException {
-		Set<CarType> types = new HashSet<>();
-		for (ICarRentalCompany company : companies)
-			types.addAll(company.getAllCarTypes());
-		
-		return types;
+		return directory.getCarTypes();
 	}
 	
 	/**
@@ -105,67 +130,180 @@ public class RentalAgency implements IRentalAgency {
 	 */
 	@Override
 	public Set<CarType> getAvailableCarTypes(Date start, Date end) throws RemoteException {
-		Set<CarType> types = new HashSet<>();
-		for (ICarRentalCompany company : getCompanies()) {
-			types.addAll(company.getAvailableCarTypes(start, end));
-		}
+		return getAvailableCarTypes(getCompanies(), start, end);
+	}
+	
+	/**
+	 * Get the set of available car types of the given companies in a given period. The answers
+	 * of the companies are merged as bitsets of canonical ids, and expanded only at the end.
+	 */
+	private Set<CarType> getAvailableCarTypes(Collection<ICarRentalCompany> companies, Date start, Date end) throws RemoteException {
+		BitSet ids = new BitSet();
+		for (BitSet companyIds : fanOut.send(companies, company -> getAvailableCarTypeIds(company, start, end)).values())
+			ids.or(companyIds);
 		
-		return types;
+		return directory.getCarTypes(ids);
+	}
+	
+	/**
+	 * Get the canonical ids of the available car types of one company in a given period. The
+	 * answer is cached, and only recomputed by the company when its state version changed in
+	 * the meantime.
+	 */
+	private BitSet getAvailableCarTypeIds(ICarRentalCompany company, Date start, Date end) throws RemoteException {
+		// Fetch the version first: an answer computed afterwards is at least as recent.
+		long version = company.getVersion();
+		BitSet ids = availabilityCache.get(company, start, end, version);
+		if (ids == null) {
+			ids = company.getAvailableCarTypeIds(start, end);
+			availabilityCache.put(company, start, end, version, ids);
+		}
+		return directory.toCanonicalIds(company, ids);
 	}
 	
 	/**
 	 * Create a quote for the given client with the given constraints.
+	 * 
+	 * Only the companies that operate in the region and offer the car type are asked, all in
+	 * parallel, and the quote is picked according to the quote policy of this agency.
 	 */
 	@Override
 	public Quote createQuote(ReservationConstraints constraints, String client) throws ReservationException, java.rmi.RemoteException {
-		for (ICarRentalCompany company : getCompanies()) {
+		Set<ICarRentalCompany> candidates = directory.getCompaniesOffering(constraints.getRegion(), constraints.getCarType());
+		// A company that cannot satisfy the constraints answers null.
+		CompanyFanOut.Request<Quote> request = company -> {
 			try {
 				return company.createQuote(constraints, client);
-			} catch (ReservationException exception) {
-				continue;
+			} catch (ReservationException | IllegalArgumentException exception) {
+				return null;
 			}
-			// For if there is no car with the given car type in the current car rental company.
-			catch (IllegalArgumentException exception) {
-				continue;
+		};
+		
+		// Companies may hold a car for their quote: let go of every quote that is not used, also
+		// those that come in after the deadline or after the first one.
+		CompanyFanOut.Unused<Quote> release = (company, unused) -> fanOut.post(company, c -> {
+			c.releaseQuote(unused);
+			return null;
+		});
+		
+		Quote quote = null;
+		if (quotePolicy == QuotePolicy.FIRST_AVAILABLE) {
+			quote = fanOut.sendAny(candidates, request, release);
+		} else {
+			Map<ICarRentalCompany, Quote> answers = fanOut.send(candidates, request, release);
+			for (Quote candidate : answers.values()) {
+				if (candidate != null && (quote == null || candidate.getRentalPrice() < quote.getRentalPrice()))
+					quote = candidate;
+			}
+			for (Map.Entry<ICarRentalCompany, Quote> answer : answers.entrySet()) {
+				if (answer.getValue() != null && answer.getValue() != quote)
+					release.accept(answer.getKey(), answer.getValue());
 			}
 		}
+		if (quote != null)
+			return quote;
 		
 		throw new ReservationException("<" + getName() + "> No cars available to satisfy the given constraints.");
 	}
 	
 	/**
-	 * Confirm all quotes of this reservation session.
+	 * Confirm all quotes of this reservation session with a two-phase commit: all involved car
+	 * rental companies first hold cars for their quotes in parallel, and only when all of them
+	 * succeeded the holds are committed (again in parallel). Otherwise they are all aborted.
 	 */
 	@Override
 	public List<Reservation> confirmQuotes(Set<Quote> quotes) throws RemoteException, ReservationException {
-		List<Reservation> reservations = new ArrayList<>();
+		Map<ICarRentalCompany, List<Quote>> quotesByCompany = new LinkedHashMap<>();
 		for (Quote quote : quotes) {
-			try {
-				Reservation reservation = getCompany(quote.getRentalCompany()).confirmQuote(quote);
-				reservations.add(reservation);
-			} catch (ReservationException exception) {
-				for (Reservation reservation : reservations) {
-					getCompany(reservation.getRentalCompany()).cancelReservation(reservation);
+			ICarRentalCompany company = getCompany(quote.getRentalCompany());
+			if (company == null)
+				throw new ReservationException("<" + getName() + "> Unknown car rental company " + quote.getRentalCompany());
+			quotesByCompany.computeIfAbsent(company, key -> new ArrayList<>()).add(quote);
+		}
+		Set<ICarRentalCompany> companies = quotesByCompany.keySet();
+		String transactionId = UUID.randomUUID().toString();
+		
+		// Phase 1: a company that cannot hold all of its quotes answers with the reason.
+		Map<ICarRentalCompany, Optional<ReservationException>> votes;
+		try {
+			votes = fanOut.send(companies, company -> {
+				try {
+					company.prepareQuotes(transactionId, quotesByCompany.get(company));
+					return Optional.empty();
+				} catch (ReservationException exception) {
+					return Optional.of(exception);
 				}
-				throw exception;
+			});
+		} catch (RemoteException exception) {
+			abort(companies, transactionId);
+			throw exception;
+		}
+		for (Optional<ReservationException> vote : votes.values()) {
+			if (vote.isPresent()) {
+				abort(companies, transactionId);
+				throw vote.get();
 			}
 		}
+		if (votes.size() < companies.size()) {
+			abort(companies, transactionId);
+			throw new ReservationException("<" + getName() + "> Not all car rental companies could hold the quotes.");
+		}
 		
+		// Phase 2: commit everywhere. Should a commit fail anyway, undo the others. A company that
+		// did not answer in time may still have committed: aborting cancels its reservations then.
+		Map<ICarRentalCompany, List<Reservation>> committed;
+		try {
+			committed = fanOut.send(companies, company -> {
+				try {
+					return company.commitQuotes(transactionId);
+				} catch (ReservationException exception) {
+					return null;
+				}
+			});
+		} catch (RemoteException exception) {
+			committed = new HashMap<>();
+		}
+		committed.values().removeIf(reservations -> reservations == null);
+		if (committed.size() < companies.size()) {
+			abort(companies, transactionId);
+			throw new ReservationException("<" + getName() + "> Not all car rental companies could commit the quotes.");
+		}
+		
+		List<Reservation> reservations = new ArrayList<>();
+		for (List<Reservation> companyReservations : committed.values())
+			reservations.addAll(companyReservations);
 		return reservations;
 	}
 	
+	/**
+	 * Abort the given transaction at the given companies. Aborting is idempotent, so companies
+	 * that do not answer in time are sent the abort once more in the background. Holds of
+	 * companies that cannot be reached at all expire on their own.
+	 */
+	private void abort(Set<ICarRentalCompany> companies, String transactionId) {
+		CompanyFanOut.Request<Boolean> request = company -> {
+			company.abortQuotes(transactionId);
+			return Boolean.TRUE;
+		};
+		Map<ICarRentalCompany, Boolean> answered;
+		try {
+			answered = fanOut.send(companies, request);
+		} catch (RemoteException exception) {
+			// Logged by the fan-out.
+			answered = new HashMap<>();
+		}
+		for (ICarRentalCompany company : companies) {
+			if (!answered.containsKey(company))
+				fanOut.post(company, request);
+		}
+	}
+	
 	/**
 	 * Get the set of available car types in a given region for a given period.
 	 */
 	@Override
 	public Set<CarType> getAvailableCarTypesForRegion(Date start, Date end, String region) throws RemoteException {
-		Set<CarType> types = new HashSet<>();
-		for (ICarRentalCompany company : getCompanies()) {
-			if (company.getRegions().contains(region))
-				types.addAll(company.getAvailableCarTypes(start, end));
-		}
-		
-		return types;
+		return getAvailableCarTypes(directory.getCompaniesInRegion(region), start, end);
 	}
 	
 	/**
@@ -177,27 +315,12 @@ public class RentalAgency implements IRentalAgency {
 	}
 	
 	/**
-	 * Get a map that gives the number of reservations per renter.
-	 */
-	private Map<String, Integer> getNumResByRenter() throws RemoteException {
-		Map<String, Integer> numResByRenter = new HashMap<>();
-		for (ICarRentalCompany company : getCompanies()) {
-			Map<String, Integer> companyNumResByRenter = company.getNumResByRenter();
-			for (Map.Entry<String, Integer> entry : companyNumResByRenter.entrySet())
-				numResByRenter.put(entry.getKey(), numResByRenter.getOrDefault(entry.getKey(), 0) + entry.getValue());
-		}
-		
-		return numResByRenter;
-	}
-	
-	/**
-	 * Get the set of all renters that have the highest number of reservations.
+	 * Get the set of all renters that have the highest number of reservations, or an empty
+	 * set if there are no reservations.
 	 */
 	@Override
 	public Set<String> getBestRenters() throws RemoteException {
-		Map<String, Integer> numResByRenter = getNumResByRenter();
-		int highestValue = numResByRenter.values().stream().reduce((Integer num1, Integer num2) -> (num1 < num2 ? num2 : num1)).get();
-		return numResByRenter.keySet().stream().filter(name -> numResByRenter.get(name) == highestValue).collect(Collectors.toSet());
+		return new HashSet<>(TopRenters.find(fanOut, getCompanies(), 1).keySet());
 	}
 	
 	/**
@@ -205,8 +328,11 @@ public class RentalAgency implements IRentalAgency {
 	 */
 	@Override
 	public int getNumResByRenter(String name) throws RemoteException {
-		Integer numRes = getNumResByRenter().get(name);
-		return numRes == null ? 0 : numRes;
+		int numRes = 0;
+		for (Map<String, Integer> companyNumRes : fanOut.sendAll(getCompanies(),
+				company -> company.getNumResByRenter(Collections.singleton(name))).values())
+			numRes += companyNumRes.getOrDefault(name, 0);
+		return numRes;
 	}
 	
 	/**
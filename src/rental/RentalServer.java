@@ -8,6 +8,7 @@ import java.rmi.server.UnicastRemoteObject;
 
 import company.CRCServer;
 import company.ReservationException;
+import company.RmiSocketFactory;
 
 public class RentalServer {
 	
@@ -26,7 +27,8 @@ public class RentalServer {
 		rental.addCompany("Hertz");
 		rental.addCompany("Dockx");
 		
-		IRentalAgency rentalStub = (IRentalAgency) UnicastRemoteObject.exportObject(rental, 0);
+		RmiSocketFactory sockets = RmiSocketFactory.fromSystemProperties();
+		IRentalAgency rentalStub = (IRentalAgency) UnicastRemoteObject.exportObject(rental, 0, sockets, sockets);
 		Registry registry = LocateRegistry.getRegistry(14540);
 		registry.rebind(rentalAgencyname, rentalStub);
 	}
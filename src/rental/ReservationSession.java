@@ -5,6 +5,7 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import company.CarType;
 import company.Reservation;
@@ -18,7 +19,8 @@ public class ReservationSession extends Session {
 	 */
 	private static final long serialVersionUID = 857999803245762097L;
 	
-	private Set<Quote> quotes = new HashSet<>();
+	// Can be changed by several threads at once, see AsyncRentalAgency.
+	private Set<Quote> quotes = ConcurrentHashMap.newKeySet();
 	
 	public ReservationSession(IRentalAgency agency, String owner) {
 		super(agency, owner);
@@ -54,12 +56,23 @@ public class ReservationSession extends Session {
 	}
 	
 	/**
-	 * Confirm all quotes of this reservation session.
+	 * Confirm all quotes of this reservation session. If the confirmation fails, the quotes
+	 * stay pending.
 	 */
 	public List<Reservation> confirmQuotes() throws RemoteException, ReservationException {
-		List<Reservation> reservations = agency.confirmQuotes(quotes);
-		quotes.clear();
-		return reservations;
+		// Take the quotes out one by one, so a quote is confirmed by one of several overlapping
+		// calls only. Quotes created in the meantime stay pending.
+		Set<Quote> confirming = new HashSet<Quote>();
+		for (Quote quote : quotes) {
+			if (quotes.remove(quote))
+				confirming.add(quote);
+		}
+		try {
+			return agency.confirmQuotes(confirming);
+		} catch (Exception exception) {
+			quotes.addAll(confirming);
+			throw exception;
+		}
 	}
 	
 	/**
@@ -0,0 +1,153 @@
+package rental;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import company.ICarRentalCompany;
+
+/**
+ * Finds the renters with the most reservations over all companies, without collecting the
+ * counts of all renters of all companies.
+ *
+ * Uses the three rounds of the threshold algorithm TPUT:
+ * <ol>
+ * <li>Every company sends its local top k. Adding those up gives a lower bound on the k-th
+ * highest total.</li>
+ * <li>A renter can only reach that total if one of the m companies has at least 1/m of it,
+ * so every company sends the renters with at least that many reservations. Renters that no
+ * company sent cannot be in the top k; for the others there is an upper bound.</li>
+ * <li>The companies send the exact counts of the renters whose upper bound can still make
+ * the top k, but which they did not send yet.</li>
+ * </ol>
+ * The answer is exact. If a company that answered the first round fails in a later one,
+ * the counts of all renters are collected instead. If a company does not answer at all, no
+ * exact answer is possible and the search fails.
+ */
+class TopRenters {
+
+	private final CompanyFanOut fanOut;
+	// Known counts of each company that answered so far.
+	private Map<ICarRentalCompany, Map<String, Integer>> known = new HashMap<>();
+
+	private TopRenters(CompanyFanOut fanOut) {
+		this.fanOut = fanOut;
+	}
+
+	/**
+	 * Get the k renters with the most reservations at the given companies, and all renters
+	 * tied with the last of them, with their total number of reservations.
+	 *
+	 * @throws RemoteException if one of the companies failed or did not answer in time
+	 */
+	public static Map<String, Integer> find(CompanyFanOut fanOut, Collection<ICarRentalCompany> companies, int k)
+			throws RemoteException {
+		return new TopRenters(fanOut).find(companies, k);
+	}
+
+	private Map<String, Integer> find(Collection<ICarRentalCompany> companies, int k) throws RemoteException {
+		if (companies.isEmpty() || k <= 0)
+			return new HashMap<>();
+
+		// Round 1: local top k.
+		known.putAll(fanOut.sendAll(companies, company -> company.getTopRenters(k)));
+		int lowerBound = kthHighest(getPartialTotals(), k);
+
+		// Round 2: every renter that has at least 1/m of the lower bound somewhere.
+		int nbCompanies = known.size();
+		int threshold = Math.max(1, (lowerBound + nbCompanies - 1) / nbCompanies);
+		if (!merge(fanOut.send(known.keySet(), company -> company.getRentersWithAtLeast(threshold))))
+			return getAllTotals(companies, k);
+		Map<String, Integer> partialTotals = getPartialTotals();
+		lowerBound = kthHighest(partialTotals, k);
+
+		// Round 3: the missing counts of the renters that can still make it.
+		Map<ICarRentalCompany, Set<String>> missing = new HashMap<>();
+		Map<String, Integer> totals = new HashMap<>();
+		for (Map.Entry<String, Integer> entry : partialTotals.entrySet()) {
+			String renter = entry.getKey();
+			List<ICarRentalCompany> unknownAt = new ArrayList<>();
+			for (Map.Entry<ICarRentalCompany, Map<String, Integer>> company : known.entrySet()) {
+				if (!company.getValue().containsKey(renter))
+					unknownAt.add(company.getKey());
+			}
+			// A company that did not send the renter has fewer than threshold reservations of it.
+			if (entry.getValue() + unknownAt.size() * (threshold - 1) < lowerBound)
+				continue;
+			totals.put(renter, entry.getValue());
+			for (ICarRentalCompany company : unknownAt)
+				missing.computeIfAbsent(company, c -> new HashSet<>()).add(renter);
+		}
+		if (!missing.isEmpty()) {
+			Map<ICarRentalCompany, Map<String, Integer>> counts = fanOut.send(missing.keySet(),
+					company -> company.getNumResByRenter(missing.get(company)));
+			if (counts.size() < missing.size())
+				return getAllTotals(companies, k);
+			for (Map<String, Integer> companyCounts : counts.values()) {
+				for (Map.Entry<String, Integer> entry : companyCounts.entrySet())
+					totals.merge(entry.getKey(), entry.getValue(), Integer::sum);
+			}
+		}
+		return top(totals, k);
+	}
+
+	/**
+	 * Add the given answers to the known counts.
+	 *
+	 * @return false if a company that answered before did not answer now
+	 */
+	private boolean merge(Map<ICarRentalCompany, Map<String, Integer>> answers) {
+		if (answers.size() < known.size())
+			return false;
+		for (Map.Entry<ICarRentalCompany, Map<String, Integer>> answer : answers.entrySet())
+			known.get(answer.getKey()).putAll(answer.getValue());
+		return true;
+	}
+
+	private Map<String, Integer> getPartialTotals() {
+		Map<String, Integer> totals = new HashMap<>();
+		for (Map<String, Integer> counts : known.values()) {
+			for (Map.Entry<String, Integer> entry : counts.entrySet())
+				totals.merge(entry.getKey(), entry.getValue(), Integer::sum);
+		}
+		return totals;
+	}
+
+	/**
+	 * Fall back on adding up the counts of all renters.
+	 */
+	private Map<String, Integer> getAllTotals(Collection<ICarRentalCompany> companies, int k) throws RemoteException {
+		known = new HashMap<>(fanOut.sendAll(companies, company -> company.getNumResByRenter()));
+		return top(getPartialTotals(), k);
+	}
+
+	/**
+	 * Get the k-th highest of the given totals, or 0 if there are fewer.
+	 */
+	private static int kthHighest(Map<String, Integer> totals, int k) {
+		if (totals.size() < k)
+			return 0;
+		List<Integer> values = new ArrayList<>(totals.values());
+		values.sort(Collections.reverseOrder());
+		return values.get(k - 1);
+	}
+
+	/**
+	 * Keep the k highest of the given totals, and all totals tied with the last of them.
+	 */
+	private static Map<String, Integer> top(Map<String, Integer> totals, int k) {
+		int lowest = Math.max(1, kthHighest(totals, k));
+		Map<String, Integer> out = new HashMap<>();
+		for (Map.Entry<String, Integer> entry : totals.entrySet()) {
+			if (entry.getValue() >= lowest)
+				out.put(entry.getKey(), entry.getValue());
+		}
+		return out;
+	}
+}